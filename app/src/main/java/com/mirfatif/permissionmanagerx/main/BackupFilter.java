@@ -0,0 +1,35 @@
+package com.mirfatif.permissionmanagerx.main;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+// Hashed lookups done for every backup entry. Plain Java, so that it can be timed on JVM.
+class BackupFilter {
+
+  private final Set<String> mPrefKeys = new HashSet<>();
+  private final Set<String> mInstalledPackages = new HashSet<>();
+
+  boolean hasPrefKeys() {
+    return !mPrefKeys.isEmpty();
+  }
+
+  // Preference keys don't change, so set only once
+  void setPrefKeys(Collection<String> prefKeys) {
+    mPrefKeys.addAll(prefKeys);
+  }
+
+  boolean isInvalidPrefKey(String prefKey) {
+    return !mPrefKeys.contains(prefKey);
+  }
+
+  // Replaced at the start of every backup / restore run
+  void setInstalledPackages(Collection<String> pkgNames) {
+    mInstalledPackages.clear();
+    mInstalledPackages.addAll(pkgNames);
+  }
+
+  boolean isInstalled(String pkgName) {
+    return mInstalledPackages.contains(pkgName);
+  }
+}
@@ -21,28 +21,16 @@ import com.mirfatif.permissionmanagerx.parser.permsdb.PermissionEntity;
 import com.mirfatif.permissionmanagerx.prefs.MySettings;
 import com.mirfatif.permissionmanagerx.ui.AlertDialogFragment;
 import com.mirfatif.permissionmanagerx.util.Utils;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
@@ -158,14 +146,23 @@ public class BackupRestore {
     }
   }
 
+  // Indentation for pretty formatting, written directly while serializing
+  private static final String INDENT_1 = "\n  ";
+  private static final String INDENT_2 = "\n    ";
+
+  // Permission references are read from the database in chunks of this size
+  private static final int PERM_CHUNK_SIZE = 1000;
+
   public boolean backup(OutputStream outputStream) {
     showProgressBar(true);
+    refreshInstalledPackages();
     XmlSerializer serializer = Xml.newSerializer();
-    StringWriter stringWriter = new StringWriter();
     try {
-      serializer.setOutput(stringWriter);
+      serializer.setOutput(outputStream, "UTF-8");
       serializer.startDocument("UTF-8", true);
+      serializer.ignorableWhitespace("\n");
       serializer.startTag(null, ROOT);
+      serializer.ignorableWhitespace(INDENT_1);
       serializer.startTag(null, PREFERENCES);
     } catch (IOException e) {
       e.printStackTrace();
@@ -212,6 +209,7 @@ public class BackupRestore {
       }
 
       try {
+        serializer.ignorableWhitespace(INDENT_2);
         serializer.startTag(null, PREF);
         serializer.attribute(null, KEY, key);
         serializer.attribute(null, VALUE, value.toString());
@@ -224,45 +222,50 @@ public class BackupRestore {
     }
 
     try {
+      serializer.ignorableWhitespace(INDENT_1);
       serializer.endTag(null, PREFERENCES);
+      serializer.ignorableWhitespace(INDENT_1);
       serializer.startTag(null, PERMISSIONS);
     } catch (IOException e) {
       e.printStackTrace();
       return false;
     }
 
-    // permissions
-    List<PermissionEntity> permEntities = mMySettings.getPermDb().getAll();
-    int skippedApps = 0;
+    // permissions, not all loaded in memory at once
+    int processedPerms = 0, skippedApps = 0;
+    int lastId = 0;
+    List<PermissionEntity> permEntities;
 
-    if (mSkipUninstalledApps) {
-      List<PermissionEntity> permEntitiesCleaned = new ArrayList<>();
+    do {
+      permEntities = mMySettings.getPermDb().getChunk(lastId, PERM_CHUNK_SIZE);
       for (PermissionEntity entity : permEntities) {
-        if (isInstalled(entity.pkgName)) {
-          permEntitiesCleaned.add(entity);
-        } else {
+        lastId = entity.id;
+        if (mSkipUninstalledApps && !isInstalled(entity.pkgName)) {
           skippedApps++;
+          continue;
         }
-      }
-      permEntities = permEntitiesCleaned;
-    }
 
-    for (PermissionEntity entity : permEntities) {
-      try {
-        serializer.startTag(null, PERM);
-        serializer.attribute(null, KEY, entity.pkgName);
-        serializer.attribute(null, VALUE, entity.state);
-        serializer.attribute(null, TYPE, entity.permName);
-        serializer.endTag(null, PERM);
-      } catch (IOException e) {
-        e.printStackTrace();
-        return false;
+        try {
+          serializer.ignorableWhitespace(INDENT_2);
+          serializer.startTag(null, PERM);
+          serializer.attribute(null, KEY, entity.pkgName);
+          serializer.attribute(null, VALUE, entity.state);
+          serializer.attribute(null, TYPE, entity.permName);
+          serializer.endTag(null, PERM);
+        } catch (IOException e) {
+          e.printStackTrace();
+          return false;
+        }
+        processedPerms++;
       }
-    }
+    } while (permEntities.size() == PERM_CHUNK_SIZE);
 
     try {
+      serializer.ignorableWhitespace(INDENT_1);
       serializer.endTag(null, PERMISSIONS);
+      serializer.ignorableWhitespace("\n");
       serializer.endTag(null, ROOT);
+      serializer.ignorableWhitespace("\n");
       serializer.endDocument();
       serializer.flush();
     } catch (IOException e) {
@@ -270,164 +273,165 @@ public class BackupRestore {
       return false;
     }
 
-    // pretty formatting
-    Source input = new StreamSource(new StringReader(stringWriter.toString()));
-    StreamResult output = new StreamResult(outputStream);
     try {
-      Transformer transformer = TransformerFactory.newInstance().newTransformer();
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-      transformer.transform(input, output);
-    } catch (TransformerException e) {
-      e.printStackTrace();
-    }
-
-    try {
-      stringWriter.flush();
-      stringWriter.close();
       outputStream.flush();
       outputStream.close();
     } catch (IOException ignored) {
     }
 
-    succeeded(true, processedPrefs, permEntities.size(), invalidPrefs, skippedApps);
+    succeeded(true, processedPrefs, processedPerms, invalidPrefs, skippedApps);
     return true;
   }
 
+  // Permission references are saved to the database in batches of this size
+  private static final int PERM_BATCH_SIZE = 500;
+
+  /*
+    Single pass, preferences and permissions are restored as they are parsed. Permissions are
+    inserted in batches, but all batches are in a single transaction which is rolled back if
+    parsing fails, and preferences are applied only on success. So a corrupt backup does not
+    leave a half-restored state. The write lock is held while parsing, so the lookups which
+    query PackageManager or resources are prepared before the transaction is opened.
+  */
   private boolean restore(InputStream inputStream) {
     showProgressBar(false);
-    // create a copy of InputStream before consuming it
-    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    byte[] buffer = new byte[1024];
-    int len;
+    refreshInstalledPackages();
+    loadPrefKeys();
+
+    SharedPreferences.Editor prefEdit = Utils.getDefPrefs().edit();
+    RestoreCounts counts;
     try {
-      while ((len = inputStream.read(buffer)) > -1) {
-        byteArrayOutputStream.write(buffer, 0, len);
-      }
-      byteArrayOutputStream.flush();
-    } catch (IOException e) {
+      counts = mMySettings.runInPermDbTransaction(() -> parseBackup(inputStream, prefEdit));
+    } catch (RuntimeException e) {
+      // Checked exceptions are wrapped by Room
       e.printStackTrace();
-    }
-    InputStream inputStream1 = new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
-    InputStream inputStream2 = new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
-
-    int invalidPrefs = 0;
-
-    // preferences
-    List<BackupEntry> prefEntries = getKeyValueEntries(inputStream1, PREFERENCES, PREF);
-    if (prefEntries == null) {
       return false;
     }
+    prefEdit.apply();
 
-    SharedPreferences.Editor prefEdit = Utils.getDefPrefs().edit();
-    for (BackupEntry entry : prefEntries) {
+    succeeded(false, counts.prefs, counts.perms, counts.invalidPrefs, counts.skippedApps);
+    return true;
+  }
 
-      if (isInvalidPrefKey(entry.key)) {
-        Log.e(TAG, "Invalid preference: " + entry.key);
-        invalidPrefs++;
+  private RestoreCounts parseBackup(InputStream inputStream, SharedPreferences.Editor prefEdit)
+      throws IOException, XmlPullParserException {
+    RestoreCounts counts = new RestoreCounts();
+    List<PermissionEntity> permEntities = new ArrayList<>();
+
+    XmlPullParser xmlParser = Xml.newPullParser();
+    boolean rootTagFound = false;
+    String mainTag = null;
+
+    xmlParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+    xmlParser.setInput(inputStream, null);
+    while (true) {
+      int eventType = xmlParser.next(); // get the next parsing event
+      if (eventType == XmlPullParser.END_DOCUMENT) break;
+      if (eventType != XmlPullParser.START_TAG && eventType != XmlPullParser.END_TAG) continue;
+
+      String tagName = xmlParser.getName();
+      if (eventType == XmlPullParser.START_TAG && tagName.equals(ROOT)) rootTagFound = true;
+      if (!rootTagFound) continue;
+
+      // if we reach the start or end of "preferences" or "permissions"
+      if (tagName.equals(PREFERENCES) || tagName.equals(PERMISSIONS)) {
+        mainTag = eventType == XmlPullParser.START_TAG ? tagName : null;
         continue;
       }
 
-      switch (entry.type) {
-        case BOOLEAN:
-          prefEdit.putBoolean(entry.key, Boolean.parseBoolean(entry.value));
-          break;
-        case FLOAT:
-          prefEdit.putFloat(entry.key, Float.parseFloat(entry.value));
-          break;
-        case INT:
-          prefEdit.putInt(entry.key, Integer.parseInt(entry.value));
-          break;
-        case LONG:
-          prefEdit.putLong(entry.key, Long.parseLong(entry.value));
-          break;
-        case SET:
-          if (entry.value.length() == 0) {
-            // Do not save empty string to Set
-            prefEdit.putStringSet(entry.key, new HashSet<>());
-          } else {
-            prefEdit.putStringSet(
-                entry.key, new HashSet<>(Arrays.asList(entry.value.split(SEPARATOR))));
-          }
-          break;
-        case STRING:
-          prefEdit.putString(entry.key, entry.value);
-          break;
-        default:
-          Log.e(TAG, "Unknown preference type: " + entry.type);
-          invalidPrefs++;
-          break;
+      if (eventType != XmlPullParser.START_TAG || mainTag == null) continue;
+
+      // if we are at the start of "pref" or "perm"
+      BackupEntry entry = new BackupEntry();
+      entry.key = xmlParser.getAttributeValue(null, KEY);
+      entry.value = xmlParser.getAttributeValue(null, VALUE);
+      entry.type = xmlParser.getAttributeValue(null, TYPE);
+
+      if (mainTag.equals(PREFERENCES) && tagName.equals(PREF)) {
+        counts.prefs++;
+        if (!putPref(prefEdit, entry)) {
+          counts.invalidPrefs++;
+        }
+      } else if (mainTag.equals(PERMISSIONS) && tagName.equals(PERM)) {
+        if (mSkipUninstalledApps && !isInstalled(entry.key)) {
+          counts.skippedApps++;
+          continue;
+        }
+        permEntities.add(toPermissionEntity(entry));
+        counts.perms++;
+        if (permEntities.size() == PERM_BATCH_SIZE) {
+          insertPermEntities(permEntities);
+          showRestoreProgress(counts.perms);
+        }
       }
-      prefEdit.apply();
     }
 
-    // permissions
-    List<BackupEntry> permEntries = getKeyValueEntries(inputStream2, PERMISSIONS, PERM);
-    if (permEntries == null) {
+    insertPermEntities(permEntities);
+    return counts;
+  }
+
+  private static class RestoreCounts {
+
+    private int prefs, invalidPrefs, perms, skippedApps;
+  }
+
+  // Returns false if the preference is invalid.
+  private boolean putPref(SharedPreferences.Editor prefEdit, BackupEntry entry) {
+    if (isInvalidPrefKey(entry.key)) {
+      Log.e(TAG, "Invalid preference: " + entry.key);
       return false;
     }
 
-    int skippedApps = 0;
-    if (mSkipUninstalledApps) {
-      List<BackupEntry> permEntriesCleaned = new ArrayList<>();
-      for (BackupEntry entry : permEntries) {
-        if (isInstalled(entry.key)) {
-          permEntriesCleaned.add(entry);
+    switch (entry.type) {
+      case BOOLEAN:
+        prefEdit.putBoolean(entry.key, Boolean.parseBoolean(entry.value));
+        break;
+      case FLOAT:
+        prefEdit.putFloat(entry.key, Float.parseFloat(entry.value));
+        break;
+      case INT:
+        prefEdit.putInt(entry.key, Integer.parseInt(entry.value));
+        break;
+      case LONG:
+        prefEdit.putLong(entry.key, Long.parseLong(entry.value));
+        break;
+      case SET:
+        if (entry.value.length() == 0) {
+          // Do not save empty string to Set
+          prefEdit.putStringSet(entry.key, new HashSet<>());
         } else {
-          skippedApps++;
+          prefEdit.putStringSet(
+              entry.key, new HashSet<>(Arrays.asList(entry.value.split(SEPARATOR))));
         }
-      }
-      permEntries = permEntriesCleaned;
+        break;
+      case STRING:
+        prefEdit.putString(entry.key, entry.value);
+        break;
+      default:
+        Log.e(TAG, "Unknown preference type: " + entry.type);
+        return false;
     }
-
-    updatePermissionEntities(permEntries);
-
-    succeeded(false, prefEntries.size(), permEntries.size(), invalidPrefs, skippedApps);
     return true;
   }
 
-  private List<BackupEntry> getKeyValueEntries(
-      InputStream inputStream, String mainTag, String entryTag) {
-    XmlPullParser xmlParser = Xml.newPullParser();
-    List<BackupEntry> backupEntryList = new ArrayList<>();
-    boolean rootTagFound = false;
-    boolean mainTagFound = false;
-    try {
-      xmlParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-      xmlParser.setInput(inputStream, null);
-      while (true) {
-        int eventType = xmlParser.next(); // get the next parsing event
-        if (eventType == XmlPullParser.END_DOCUMENT) break;
-
-        String tagName = xmlParser.getName();
-        if (eventType == XmlPullParser.START_TAG && tagName.equals(ROOT)) rootTagFound = true;
-        if (eventType == XmlPullParser.START_TAG && tagName.equals(mainTag)) mainTagFound = true;
-
-        if (!rootTagFound || !mainTagFound) continue;
-
-        // if we reach the end of "preferences" or "permissions"
-        if (eventType == XmlPullParser.END_TAG && tagName.equals(mainTag)) break;
-
-        // if we are at the start of "pref" or "perm"
-        if (eventType == XmlPullParser.START_TAG && tagName.equals(entryTag)) {
-          BackupEntry entry = new BackupEntry();
-          entry.key = xmlParser.getAttributeValue(null, KEY);
-          entry.value = xmlParser.getAttributeValue(null, VALUE);
-          entry.type = xmlParser.getAttributeValue(null, TYPE);
-          backupEntryList.add(entry);
-        }
-      }
-    } catch (IOException | XmlPullParserException e) {
-      e.printStackTrace();
-      return null;
+  // Part of the restore transaction
+  private void insertPermEntities(List<PermissionEntity> permEntities) {
+    if (!permEntities.isEmpty()) {
+      mMySettings.getPermDb().insertAll(permEntities.toArray(new PermissionEntity[0]));
+      permEntities.clear();
     }
-    return backupEntryList;
   }
 
-  private final List<String> mPrefKeys = new ArrayList<>();
+  private final BackupFilter mBackupFilter = new BackupFilter();
 
   private boolean isInvalidPrefKey(String prefKey) {
-    if (mPrefKeys.isEmpty()) {
+    loadPrefKeys();
+    return mBackupFilter.isInvalidPrefKey(prefKey);
+  }
+
+  private void loadPrefKeys() {
+    if (!mBackupFilter.hasPrefKeys()) {
+      List<String> prefKeys = new ArrayList<>();
       for (Field field : R.string.class.getDeclaredFields()) {
         String strName = field.getName();
         if (!strName.startsWith("pref_")) continue;
@@ -435,47 +439,49 @@ public class BackupRestore {
         if (strName.endsWith("_enc_key")) continue;
 
         Integer strKeyResId =
-            Utils.getStaticIntField(strName, R.string.class, TAG + ": isInvalidPrefKey");
+            Utils.getStaticIntField(strName, R.string.class, TAG + ": loadPrefKeys");
         if (strKeyResId != null) {
-          mPrefKeys.add(getString(strKeyResId));
+          prefKeys.add(getString(strKeyResId));
         }
       }
+      mBackupFilter.setPrefKeys(prefKeys);
     }
-    return !mPrefKeys.contains(prefKey);
   }
 
-  private final List<String> mInstalledPackages = new ArrayList<>();
+  // Apps may have been installed or removed since the last run
+  private void refreshInstalledPackages() {
+    if (!mSkipUninstalledApps) {
+      return;
+    }
+    List<String> pkgNames = new ArrayList<>();
+    int flags = PackageManager.MATCH_UNINSTALLED_PACKAGES;
+    for (PackageInfo info : App.getContext().getPackageManager().getInstalledPackages(flags)) {
+      pkgNames.add(info.packageName);
+    }
+    mBackupFilter.setInstalledPackages(pkgNames);
+  }
 
   private boolean isInstalled(String pkgName) {
-    if (mInstalledPackages.isEmpty()) {
-      int flags = PackageManager.MATCH_UNINSTALLED_PACKAGES;
-      for (PackageInfo info : App.getContext().getPackageManager().getInstalledPackages(flags)) {
-        mInstalledPackages.add(info.packageName);
-      }
-    }
-    return mInstalledPackages.contains(pkgName);
+    return mBackupFilter.isInstalled(pkgName);
   }
 
   public static void updatePermissionEntities(List<BackupEntry> permEntries) {
     MySettings mySettings = MySettings.getInstance();
-    Map<String, Integer> map = new HashMap<>();
-    for (PermissionEntity entity : mySettings.getPermDb().getAll()) {
-      map.put(entity.pkgName + "_" + entity.permName, entity.id);
-    }
-
     List<PermissionEntity> permEntities = new ArrayList<>();
     for (BackupEntry entry : permEntries) {
-      PermissionEntity entity = new PermissionEntity();
-      entity.pkgName = entry.key;
-      entity.state = entry.value;
-      entity.permName = entry.type;
-      Integer id = map.get(entity.pkgName + "_" + entity.permName);
-      if (id != null && id > 0) entity.id = id;
-      permEntities.add(entity);
+      permEntities.add(toPermissionEntity(entry));
     }
     mySettings.getPermDb().insertAll(permEntities.toArray(new PermissionEntity[0]));
   }
 
+  private static PermissionEntity toPermissionEntity(BackupEntry entry) {
+    PermissionEntity entity = new PermissionEntity();
+    entity.pkgName = entry.key;
+    entity.state = entry.value;
+    entity.permName = entry.type;
+    return entity;
+  }
+
   private String getString(int resId) {
     return App.getContext().getString(resId);
   }
@@ -493,6 +499,16 @@ public class BackupRestore {
         });
   }
 
+  private void showRestoreProgress(int perms) {
+    if (mA == null) return;
+    Utils.runInFg(
+        () ->
+            mA.getRoundProgressTextView()
+                .setText(
+                    mA.getResources()
+                        .getQuantityString(R.plurals.restore_in_progress_count, perms, perms)));
+  }
+
   private void failed(boolean isBackup) {
     if (mA == null) {
       Log.e(TAG, (isBackup ? "Backup" : "Restore") + " failed");
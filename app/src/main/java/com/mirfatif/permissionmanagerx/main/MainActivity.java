@@ -102,6 +102,8 @@ public class MainActivity extends BaseActivity {
       return; // Activity is recreated on switching to Dark Theme, so return here
     }
 
+    mPackageParser.registerPkgChangeReceiver();
+
     // ADB cannot access shared storage of secondary profiles on Pie+. On R+ shared storage of
     // secondary profiles is not mounted (and hence not visible) in root mount namespace.
     if (isSecondaryUser()) {
@@ -309,6 +311,8 @@ public class MainActivity extends BaseActivity {
   @Override
   protected void onResume() {
     super.onResume();
+    // Apply only the packages changed since the last scan
+    Utils.runInBg(mPackageParser::updateChangedPackages);
     if (mMainActivityFlavor != null) {
       mMainActivityFlavor.onResumed();
     }
@@ -319,6 +323,10 @@ public class MainActivity extends BaseActivity {
     if (mMainActivityFlavor != null) {
       mMainActivityFlavor.onDestroyed();
     }
+    // Recreated Activity registers again
+    if (!isChangingConfigurations()) {
+      mPackageParser.unregisterPkgChangeReceiver();
+    }
     super.onDestroy();
   }
 
@@ -1,6 +1,7 @@
 package com.mirfatif.permissionmanagerx.parser;
 
 import android.content.pm.PackageManager;
+import android.os.Build;
 import android.util.Log;
 import com.mirfatif.permissionmanagerx.BuildConfig;
 import com.mirfatif.permissionmanagerx.R;
@@ -79,6 +80,73 @@ public class AppOpsParser {
     return getOpsForPackage(uid, "null", null);
   }
 
+  // Look into the snapshot if available, instead of asking Android or daemon
+  List<MyPackageOps> getOpsForPackage(
+      int uid, String packageName, Integer op, AppOpsSnapshot snapshot) {
+    if (snapshot != null) {
+      return snapshot.getOpsForPackage(uid, packageName, op);
+    }
+    return getOpsForPackage(uid, packageName, op);
+  }
+
+  List<MyPackageOps> getUidOps(int uid, AppOpsSnapshot snapshot) {
+    if (snapshot != null) {
+      List<MyPackageOps> list = snapshot.getUidOps(uid);
+      if (list != null) {
+        return list;
+      }
+    }
+    return getUidOps(uid);
+  }
+
+  // Package and UID AppOps of a package, fetched once
+  PkgAppOps getPkgAppOps(int uid, String packageName, AppOpsSnapshot snapshot) {
+    PkgAppOps pkgAppOps = new PkgAppOps();
+    List<MyPackageOps> list = getOpsForPackage(uid, packageName, null, snapshot);
+    if (list != null) {
+      pkgAppOps.setPkgOps(list);
+    }
+
+    // UID mode: android-10.0.0_r1: AppOpsService.java#3378
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      list = getUidOps(uid, snapshot);
+      if (list != null) {
+        pkgAppOps.setUidOps(list);
+      }
+    }
+    return pkgAppOps;
+  }
+
+  // AppOps of all packages in a single call. Returns null on failure.
+  AppOpsSnapshot getAppOpsSnapshot() {
+    if (mMySettings.isDebug()) {
+      Util.debugLog(TAG, "getAppOpsSnapshot() called");
+    }
+    if (mMySettings.canUseHiddenAPIs()) {
+      try {
+        List<MyPackageOps> list = mPrivTasks.getAllOps();
+        return list == null ? null : new AppOpsSnapshot(list);
+      } catch (HiddenAPIsError e) {
+        hiddenAPIsNotWorking(e.toString());
+        return getAppOpsSnapshot();
+      }
+    } else if (!mMySettings.isPrivDaemonAlive()) {
+      Utils.logDaemonDead(TAG + ": getAppOpsSnapshot");
+      return null;
+    } else {
+      Object object = mPrivDaemonHandler.sendRequest(Commands.GET_ALL_OPS);
+      if (object instanceof List<?>) {
+        List<MyPackageOps> list = new ArrayList<>();
+        for (Object item : (List<?>) object) {
+          list.add((MyPackageOps) item);
+        }
+        return new AppOpsSnapshot(list);
+      }
+    }
+    Log.e(TAG, "Error occurred in getAppOpsSnapshot()");
+    return null;
+  }
+
   private final List<String> mAppOpsList = new ArrayList<>();
   private final List<String> mAppOpsModes = new ArrayList<>();
   private final List<Integer> mOpToSwitchList = new ArrayList<>();
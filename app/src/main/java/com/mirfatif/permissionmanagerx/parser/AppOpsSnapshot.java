@@ -0,0 +1,124 @@
+package com.mirfatif.permissionmanagerx.parser;
+
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import com.mirfatif.privtasks.MyPackageOps;
+import com.mirfatif.privtasks.MyPackageOps.MyOpEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// AppOps of all packages and UIDs, received at once and indexed by UID, package and op.
+class AppOpsSnapshot {
+
+  // UID -> package name -> op -> entry
+  private final SparseArray<Map<String, SparseArray<MyOpEntry>>> mPkgOps = new SparseArray<>();
+  private final SparseArray<List<MyPackageOps>> mUidOps = new SparseArray<>();
+
+  // UIDs whose UID AppOps have been queried
+  private final SparseBooleanArray mUids = new SparseBooleanArray();
+
+  AppOpsSnapshot(List<MyPackageOps> allOpsList) {
+    for (MyPackageOps pkgOps : allOpsList) {
+      int uid = pkgOps.getUid();
+      if (pkgOps.getPackageName() == null) {
+        List<MyPackageOps> uidOpsList = mUidOps.get(uid);
+        if (uidOpsList == null) {
+          uidOpsList = new ArrayList<>();
+          mUidOps.put(uid, uidOpsList);
+        }
+        uidOpsList.add(pkgOps);
+        continue;
+      }
+
+      mUids.put(uid, true);
+      Map<String, SparseArray<MyOpEntry>> uidPkgOps = mPkgOps.get(uid);
+      if (uidPkgOps == null) {
+        uidPkgOps = new HashMap<>();
+        mPkgOps.put(uid, uidPkgOps);
+      }
+      SparseArray<MyOpEntry> opEntries = uidPkgOps.get(pkgOps.getPackageName());
+      if (opEntries == null) {
+        opEntries = new SparseArray<>();
+        uidPkgOps.put(pkgOps.getPackageName(), opEntries);
+      }
+      if (pkgOps.getOps() != null) {
+        for (MyOpEntry opEntry : pkgOps.getOps()) {
+          opEntries.put(opEntry.getOp(), opEntry);
+        }
+      }
+    }
+  }
+
+  // Same as AppOpsParser#getOpsForPackage()
+  List<MyPackageOps> getOpsForPackage(int uid, String packageName, Integer op) {
+    List<MyPackageOps> pkgOpsList = new ArrayList<>();
+    SparseArray<MyOpEntry> opEntries = getPkgOps(uid, packageName);
+    if (opEntries == null) {
+      return pkgOpsList;
+    }
+
+    List<MyOpEntry> opEntryList = new ArrayList<>();
+    if (op == null) {
+      for (int i = 0; i < opEntries.size(); i++) {
+        opEntryList.add(opEntries.valueAt(i));
+      }
+    } else {
+      MyOpEntry opEntry = opEntries.get(op);
+      if (opEntry == null) {
+        return pkgOpsList;
+      }
+      opEntryList.add(opEntry);
+    }
+
+    MyPackageOps pkgOps = new MyPackageOps();
+    pkgOps.packageName = packageName;
+    pkgOps.uid = uid;
+    pkgOps.myOpEntryList = opEntryList;
+    pkgOpsList.add(pkgOps);
+    return pkgOpsList;
+  }
+
+  // Returns null if the UID is not covered by the snapshot.
+  List<MyPackageOps> getUidOps(int uid) {
+    List<MyPackageOps> uidOpsList = mUidOps.get(uid);
+    if (uidOpsList != null) {
+      return uidOpsList;
+    }
+    return mUids.get(uid) ? new ArrayList<>() : null;
+  }
+
+  // Changes if the package or UID AppOps change
+  int getOpsHash(int uid, String packageName) {
+    int hash = 1;
+    SparseArray<MyOpEntry> opEntries = getPkgOps(uid, packageName);
+    if (opEntries != null) {
+      for (int i = 0; i < opEntries.size(); i++) {
+        hash = 31 * hash + getOpHash(opEntries.valueAt(i));
+      }
+    }
+    List<MyPackageOps> uidOpsList = mUidOps.get(uid);
+    if (uidOpsList != null) {
+      for (MyPackageOps uidOps : uidOpsList) {
+        if (uidOps.getOps() != null) {
+          for (MyOpEntry opEntry : uidOps.getOps()) {
+            hash = 31 * hash + getOpHash(opEntry);
+          }
+        }
+      }
+    }
+    return hash;
+  }
+
+  private static int getOpHash(MyOpEntry opEntry) {
+    return Objects.hash(opEntry.getOp(), opEntry.getMode(), opEntry.getLastAccessTime());
+  }
+
+  // No key is built for the lookup
+  private SparseArray<MyOpEntry> getPkgOps(int uid, String packageName) {
+    Map<String, SparseArray<MyOpEntry>> uidPkgOps = mPkgOps.get(uid);
+    return uidPkgOps == null ? null : uidPkgOps.get(packageName);
+  }
+}
@@ -5,14 +5,17 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.text.TextUtils;
 import android.text.format.DateUtils;
 import com.mirfatif.permissionmanagerx.app.App;
 import com.mirfatif.permissionmanagerx.prefs.MySettings;
 import com.mirfatif.permissionmanagerx.prefs.MySettingsFlavor;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 public class Package {
@@ -57,6 +60,65 @@ public class Package {
     mIsReferenced = reference;
     mInstallDate = installDate;
     mUpdateDate = updateDate;
+    mSearchKey = null;
+  }
+
+  // For PkgCache
+  void writeTo(DataOutput out) throws IOException {
+    PkgCache.writeString(out, mPackageLabel);
+    PkgCache.writeString(out, mPackageName);
+    out.writeBoolean(mIsFrameworkApp);
+    out.writeBoolean(mIsSystemApp);
+    out.writeBoolean(mIsEnabled);
+    out.writeInt(mUid);
+    PkgCache.writeBoolean(out, mIsReferenced);
+    out.writeLong(mInstallDate);
+    out.writeLong(mUpdateDate);
+    out.writeInt(mTotalPermCount);
+    out.writeInt(mPermCount);
+    out.writeInt(mTotalAppOpsCount);
+    out.writeInt(mAppOpsCount);
+    out.writeInt(mPermissionsList.size());
+    for (Permission perm : mPermissionsList) {
+      perm.writeTo(out);
+    }
+  }
+
+  static Package readFrom(DataInput in) throws IOException {
+    String label = PkgCache.readString(in);
+    String name = PkgCache.readString(in);
+    boolean isFrameworkApp = in.readBoolean();
+    boolean isSystemApp = in.readBoolean();
+    boolean isEnabled = in.readBoolean();
+    int uid = in.readInt();
+    Boolean isReferenced = PkgCache.readBoolean(in);
+    long installDate = in.readLong();
+    long updateDate = in.readLong();
+
+    Package pkg = new Package();
+    pkg.setTotalPermCount(in.readInt());
+    pkg.setPermCount(in.readInt());
+    pkg.setTotalAppOpsCount(in.readInt());
+    pkg.setAppOpsCount(in.readInt());
+
+    int count = in.readInt();
+    List<Permission> permList = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      permList.add(Permission.readFrom(in));
+    }
+
+    pkg.updatePackage(
+        label,
+        name,
+        permList,
+        isFrameworkApp,
+        isSystemApp,
+        isEnabled,
+        uid,
+        isReferenced,
+        installDate,
+        updateDate);
+    return pkg;
   }
 
   private static long BUILD_DATE;
@@ -83,13 +145,17 @@ public class Package {
   private String mLastFormattedName = "";
 
   public String getFormattedName() {
-    mLastFormattedName = getName();
-    if (!mMySettings.isQuickScanEnabled()) {
-      mLastFormattedName += " (" + getUid() + ")";
-    }
+    mLastFormattedName = buildFormattedName();
     return mLastFormattedName;
   }
 
+  private String buildFormattedName() {
+    if (mMySettings.isQuickScanEnabled()) {
+      return getName();
+    }
+    return getName() + " (" + getUid() + ")";
+  }
+
   public List<Permission> getPermissionsList() {
     if (mMySettings.isDeepSearching()) {
       if (mSearchPermList == null) {
@@ -151,15 +217,21 @@ public class Package {
     if (mMySettings.isQuickScanEnabled()) {
       return String.valueOf(getUid());
     }
+    mLastPermCount = buildPermCount();
+    return mLastPermCount;
+  }
+
+  private String buildPermCount() {
+    String permCount;
     if (mMySettings.isDeepSearching()) {
-      mLastPermCount = mSearchPermCount + "/" + getTotalPermCount();
+      permCount = mSearchPermCount + "/" + getTotalPermCount();
     } else {
-      mLastPermCount = mPermCount + "/" + getTotalPermCount();
+      permCount = mPermCount + "/" + getTotalPermCount();
     }
     if (!mMySettings.excludeAppOpsPerms()) {
-      mLastPermCount += " | " + getAppOpsCount();
+      permCount += " | " + getAppOpsCount();
     }
-    return mLastPermCount;
+    return permCount;
   }
 
   public void setTotalAppOpsCount(int count) {
@@ -194,6 +266,10 @@ public class Package {
     return mIsReferenced;
   }
 
+  public long getUpdateDate() {
+    return mUpdateDate;
+  }
+
   private boolean mLastShowingRef = true;
 
   public boolean shouldShowRefs() {
@@ -204,19 +280,21 @@ public class Package {
   private String mLastDate;
 
   public String getDate() {
+    mLastDate = buildDate();
+    return mLastDate;
+  }
+
+  private String buildDate() {
     Boolean isPkgInstalledDate = mMySettingsFlavor.isPkgInstallDate();
     if (isPkgInstalledDate == null) {
-      mLastDate = null;
-    } else {
-      long date = isPkgInstalledDate ? mInstallDate : mUpdateDate;
-      mLastDate =
-          date > BUILD_DATE
-              ? DateUtils.getRelativeTimeSpanString(
-                      date, System.currentTimeMillis(), DateUtils.SECOND_IN_MILLIS)
-                  .toString()
-              : null;
+      return null;
     }
-    return mLastDate;
+    long date = isPkgInstalledDate ? mInstallDate : mUpdateDate;
+    return date > BUILD_DATE
+        ? DateUtils.getRelativeTimeSpanString(
+                date, System.currentTimeMillis(), DateUtils.SECOND_IN_MILLIS)
+            .toString()
+        : null;
   }
 
   private boolean mIsRemoved = false;
@@ -240,73 +318,46 @@ public class Package {
   public static final String SEARCH_ORANGE = ":ORANGE";
   public static final String SEARCH_RED = ":RED";
 
-  public boolean contains(String queryText) {
-    if (!mMySettings.isSpecialSearch()) {
-      return _contains(queryText);
-    }
+  private SearchKey mSearchKey;
 
-    boolean isEmpty = true;
-    for (String str : queryText.split("\\|")) {
-      if (TextUtils.isEmpty(str)) {
-        continue;
-      }
-      isEmpty = false;
-      if (contains_(str)) {
-        return true;
-      }
+  // For SearchQuery. Built once, until the package is updated or quick scan setting is changed.
+  String getSearchKey(boolean upperCase) {
+    boolean quickScan = mMySettings.isQuickScanEnabled();
+    SearchKey searchKey = mSearchKey;
+    if (searchKey == null || searchKey.quickScan != quickScan) {
+      searchKey = new SearchKey(buildSearchKey(quickScan), quickScan);
+      mSearchKey = searchKey;
     }
-    return isEmpty;
-  }
-
-  private boolean contains_(String queryText) {
-    for (String str : queryText.split("&")) {
-      if (TextUtils.isEmpty(str)) {
-        continue;
-      }
-      if (!_contains(str)) {
-        return false;
-      }
-    }
-    return true;
-  }
-
-  private boolean _contains(String queryText) {
-    boolean isCaseSensitive = mMySettings.isCaseSensitiveSearch();
-    if (!isCaseSensitive) {
-      queryText = queryText.toUpperCase();
-    }
-
-    boolean contains = true;
-    if (mMySettings.isSpecialSearch() && queryText.startsWith("!")) {
-      queryText = queryText.replaceAll("^!", "");
-      contains = false;
-    }
-
-    for (String field :
-        new String[] {
-          mPackageLabel,
-          mPackageName,
-          String.valueOf(mUid),
-          (isCriticalApp()
-              ? SEARCH_CRITICAL
-              : (mIsFrameworkApp
-                  ? SEARCH_FRAMEWORK
-                  : (mIsSystemApp ? SEARCH_SYSTEM : SEARCH_USER))),
-          (mIsEnabled ? "" : SEARCH_DISABLED),
-          (mMySettings.isQuickScanEnabled()
-              ? ""
-              : (mIsReferenced == null
-                  ? SEARCH_ORANGE
-                  : (mIsReferenced ? SEARCH_GREEN : SEARCH_RED)))
-        }) {
-      if (!isCaseSensitive) {
-        field = field.toUpperCase();
-      }
-      if (field.contains(queryText)) {
-        return contains;
-      }
+    return upperCase ? searchKey.upperText : searchKey.text;
+  }
+
+  private String buildSearchKey(boolean quickScan) {
+    return SearchQuery.packFields(
+        mPackageLabel,
+        mPackageName,
+        String.valueOf(mUid),
+        (isCriticalApp()
+            ? SEARCH_CRITICAL
+            : (mIsFrameworkApp ? SEARCH_FRAMEWORK : (mIsSystemApp ? SEARCH_SYSTEM : SEARCH_USER))),
+        (mIsEnabled ? "" : SEARCH_DISABLED),
+        (quickScan
+            ? ""
+            : (mIsReferenced == null
+                ? SEARCH_ORANGE
+                : (mIsReferenced ? SEARCH_GREEN : SEARCH_RED))));
+  }
+
+  // Immutable, so that a partially built key is never seen by other threads
+  private static class SearchKey {
+
+    private final String text, upperText;
+    private final boolean quickScan;
+
+    private SearchKey(String text, boolean quickScan) {
+      this.text = text;
+      this.upperText = text.toUpperCase();
+      this.quickScan = quickScan;
     }
-    return !contains;
   }
 
   /*
@@ -317,42 +368,60 @@ public class Package {
     When ref state or enabled state changes, Activity gets Live Package changed update. So no
     need to retain their states.
     boolean is not immutable like String, so preserve the old value before overwriting the Object.
+    The last values are saved when bound. When a new Object replaces the old one (e.g. after a
+    rescan), it takes over the old one's row, so it also takes over what was rendered in that row.
+    Otherwise an unbound new Object would be compared later with its defaults. Comparison gives
+    the same result when called again for the payload.
   */
   public boolean areContentsTheSame(Package pkg) {
-    if (!mMySettings.isQuickScanEnabled()) {
-      if (getNewBoolean(mLastShowingRef) != pkg.shouldShowRefs()) {
-        return false;
-      }
+    return getChanges(pkg) == 0;
+  }
+
+  // Bits of the UI changes, for DiffUtil payloads
+  public int getChanges(Package pkg) {
+    if (pkg != this) {
+      pkg.mLastShowingRef = mLastShowingRef;
+      pkg.mLastPermCount = mLastPermCount;
+      pkg.mLastFormattedName = mLastFormattedName;
+      pkg.mLastDate = mLastDate;
+    }
 
-      if (isReferenced() != null) {
-        if (!isReferenced().equals(pkg.isReferenced())) {
-          return false;
-        }
-      } else if (pkg.isReferenced() != null) {
-        return false;
+    int changes = 0;
+
+    if (!mMySettings.isQuickScanEnabled()) {
+      if (getNewBoolean(mLastShowingRef) != mMySettings.shouldShowRefs()
+          || !Objects.equals(isReferenced(), pkg.isReferenced())) {
+        changes |= CHANGE_REF;
       }
 
-      if (!mLastPermCount.equals(pkg.getPermCount())) {
-        return false;
+      if (!mLastPermCount.equals(pkg.buildPermCount())) {
+        changes |= CHANGE_PERM_COUNT;
       }
     }
 
     // This necessarily changes when we change QuickScan settings
-    if (!mLastFormattedName.equals(pkg.getFormattedName())) {
-      return false;
+    if (!mLastFormattedName.equals(pkg.buildFormattedName())) {
+      changes |= CHANGE_NAME;
     }
 
-    if (mLastDate != null) {
-      if (!mLastDate.equals(pkg.getDate())) {
-        return false;
-      }
-    } else if (pkg.getDate() != null) {
-      return false;
+    if (!Objects.equals(mLastDate, pkg.buildDate())) {
+      changes |= CHANGE_DATE;
     }
 
-    return isEnabled() == pkg.isEnabled();
+    if (isEnabled() != pkg.isEnabled()) {
+      changes |= CHANGE_STATE;
+    }
+
+    return changes;
   }
 
+  // UI changes, for DiffUtil payloads
+  public static final int CHANGE_REF = 1;
+  public static final int CHANGE_PERM_COUNT = 1 << 1;
+  public static final int CHANGE_NAME = 1 << 2;
+  public static final int CHANGE_DATE = 1 << 3;
+  public static final int CHANGE_STATE = 1 << 4;
+
   @SuppressLint("UseValueOf")
   @SuppressWarnings("UnnecessaryBoxing,BooleanConstructorCall")
   private Boolean getNewBoolean(boolean bool) {
@@ -2,25 +2,35 @@ package com.mirfatif.permissionmanagerx.parser;
 
 import android.annotation.SuppressLint;
 import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.ChangedPackages;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.PermissionInfo;
 import android.content.pm.Signature;
+import android.database.Cursor;
 import android.os.Build;
 import android.util.Log;
+import android.util.SparseArray;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import com.mirfatif.permissionmanagerx.R;
 import com.mirfatif.permissionmanagerx.app.App;
 import com.mirfatif.permissionmanagerx.parser.PermGroupsMapping.GroupOrderPair;
 import com.mirfatif.permissionmanagerx.parser.permsdb.PermissionEntity;
+import com.mirfatif.permissionmanagerx.prefs.FilterSnapshot;
 import com.mirfatif.permissionmanagerx.prefs.MySettings;
+import com.mirfatif.permissionmanagerx.prefs.MySettingsFlavor;
 import com.mirfatif.permissionmanagerx.privs.PrivDaemonHandler;
+import com.mirfatif.permissionmanagerx.util.SearchScheduler;
 import com.mirfatif.permissionmanagerx.util.Utils;
 import com.mirfatif.privtasks.Commands;
-import com.mirfatif.privtasks.MyPackageOps;
+import com.mirfatif.privtasks.MyPackageOps.MyOpEntry;
 import com.mirfatif.privtasks.Util;
 import com.mirfatif.privtasks.hiddenapis.HiddenAPIs;
 import com.mirfatif.privtasks.hiddenapis.HiddenAPIsError;
@@ -29,12 +39,20 @@ import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PackageParser {
 
@@ -58,6 +76,8 @@ public class PackageParser {
   private final PkgParserFlavor mPkgParserFlavor = PkgParserFlavor.getInstance();
   private final PrivDaemonHandler mPrivDaemonHandler = PrivDaemonHandler.getInstance();
   private final PermGroupsMapping mPermGroupsMapping = new PermGroupsMapping();
+  private final PkgCache mPkgCache = PkgCache.getInstance();
+  private final SearchIndex mSearchIndex = new SearchIndex();
 
   private final MutableLiveData<List<Package>> mPackagesListLive = new MutableLiveData<>();
   private final MutableLiveData<Package> mChangedPackage = new MutableLiveData<>();
@@ -66,8 +86,16 @@ public class PackageParser {
 
   private final List<PackageInfo> mPackageInfoList = new ArrayList<>();
   private final List<Package> mPackagesList = new ArrayList<>();
-  private final Map<String, Integer> mPermIconsResIds = new HashMap<>();
-  private final Map<String, String> mPermRefList = new HashMap<>();
+  // Accessed from multiple parser threads
+  private final Map<String, Integer> mPermIconsResIds = new ConcurrentHashMap<>();
+  /*
+    Package name -> permission name -> reference state. Not bounded: every scan reads the
+    references of every package, for parsing and for the package cache state hash, in the same
+    order. An LRU smaller than the packages count would miss on every lookup, and turn the single
+    streaming read into an indexed query per package on every scan. Only the packages which have
+    references are in the map, and states are interned.
+  */
+  private final Map<String, Map<String, String>> mPermRefList = new ConcurrentHashMap<>();
 
   //////////////////////////////////////////////////////////////////
   //////////////////////////// PARSERS /////////////////////////////
@@ -109,15 +137,39 @@ public class PackageParser {
 
       buildPkgInfoList(isBgDeepScan);
 
+      // Permissions may have been defined or removed since the last scan
+      mPermInfos.clear();
+
       // If permissions database changes, manually call buildPermRefList()
-      if (mPermRefList.isEmpty()) {
+      if (!mPermRefListBuilt) {
         setProgress(REF_PERMS_LIST, true, false, isBgDeepScan);
         buildPermRefList();
       }
 
-      if (!mMySettings.excludeAppOpsPerms() && mMySettings.canReadAppOps()) {
+      // Don't read preferences for every package and permission
+      FilterSnapshot filters = mMySettings.getFilterSnapshot();
+
+      // Scan-scoped, so that updatePackage() doesn't see stale AppOps
+      AppOpsSnapshot appOpsSnapshot = null;
+      boolean readAppOps = !filters.excludeAppOpsPerms && mMySettings.canReadAppOps();
+      if (readAppOps) {
         setProgress(APP_OPS_LISTS, true, false, isBgDeepScan);
         mAppOpsParser.buildAppOpsLists();
+        if (!quickScan) {
+          appOpsSnapshot = mAppOpsParser.getAppOpsSnapshot();
+        }
+      }
+
+      // Cached packages cannot be validated without AppOps snapshot
+      boolean useCache = !quickScan && (!readAppOps || appOpsSnapshot != null);
+      boolean showingCache = false;
+      if (useCache) {
+        List<Package> cachedPkgList = mPkgCache.load(getCacheFingerprint());
+        // Show the last scan's packages on app launch until the scan completes
+        if (!isBgDeepScan && !mPkgListBuilt && !cachedPkgList.isEmpty()) {
+          submitLiveData(cachedPkgList, false);
+          showingCache = true;
+        }
       }
 
       if (mMySettings.isDebug()) {
@@ -134,43 +186,63 @@ public class PackageParser {
       mDoRepeatUpdates = true;
       newUpdateRequest();
 
-      for (int i = 0; i < mPackageInfoList.size(); i++) {
+      // Packages are parsed in parallel, but consumed here in the sorted order.
+      List<Future<Package>> pkgFutures =
+          submitPackages(quickScan, appOpsSnapshot, useCache, filters);
+
+      for (int i = 0; i < pkgFutures.size(); i++) {
         // handle concurrent calls
         if (Thread.interrupted()) {
           if (mMySettings.isDebug()) {
             Util.debugLog(TAG, "updatePackagesListInBg: breaking loop, new call received");
           }
+          cancelFutures(pkgFutures);
           return false;
         }
 
         if (isBgDeepScan && mMySettings.isSearching()) {
           isBgDeepScan = false;
-          setProgress(mPackageInfoList.size(), true, false, false);
+          setProgress(pkgFutures.size(), true, false, false);
         }
 
         setProgress(i, false, false, isBgDeepScan);
-        PackageInfo packageInfo = mPackageInfoList.get(i);
-        if (mMySettings.isDebug()) {
-          Util.debugLog(
-              TAG, "updatePackagesListInBg: updating package: " + packageInfo.packageName);
+
+        Package pkg;
+        try {
+          pkg = pkgFutures.get(i).get();
+        } catch (InterruptedException e) {
+          if (mMySettings.isDebug()) {
+            Util.debugLog(TAG, "updatePackagesListInBg: breaking loop, new call received");
+          }
+          cancelFutures(pkgFutures);
+          return false;
+        } catch (ExecutionException e) {
+          Log.e(TAG, "updatePackagesListInBg: " + e.getCause());
+          continue;
         }
 
-        Package pkg = new Package();
-        if (isPkgUpdated(packageInfo, pkg, quickScan)) {
+        if (pkg != null) {
           packageList.add(pkg);
           mPkgParserFlavor.onPkgCreated(pkg);
 
-          if (!isBgDeepScan && shouldDoRepeatUpdates()) {
+          if (!isBgDeepScan && !showingCache && shouldDoRepeatUpdates()) {
             submitLiveData(packageList, false);
             mDoRepeatUpdates = false;
           }
         }
       }
 
+      // Index before submitting, so that the search uses it
+      mSearchIndex.build(packageList);
+
       // finally update complete list and complete progress
       submitLiveData(packageList, true);
       setProgress(PKG_PROG_ENDS, false, true, isBgDeepScan);
 
+      if (useCache) {
+        mPkgCache.save(packageList);
+      }
+
       if (mMySettings.isDebug()) {
         Util.debugLog(
             TAG,
@@ -186,10 +258,109 @@ public class PackageParser {
 
       mPkgParserFlavor.onPkgListCompleted();
       mIsUpdating = false;
+      mPkgListBuilt = true;
       return true;
     }
   }
 
+  private static final int PARSER_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private final ExecutorService mParsePackagesExecutor =
+      Executors.newFixedThreadPool(PARSER_THREADS);
+
+  private List<Future<Package>> submitPackages(
+      boolean quickScan, AppOpsSnapshot appOpsSnapshot, boolean useCache, FilterSnapshot filters) {
+    // Build lazily initialized caches before going parallel
+    mMySettings.getExcludedApps();
+    mMySettings.getExcludedPerms();
+    mMySettings.getExtraAppOps();
+    getSystemFixedFlag();
+    getPolicyFixedFlag();
+
+    List<PackageInfo> packageInfoList;
+    synchronized (mPackageInfoList) {
+      packageInfoList = new ArrayList<>(mPackageInfoList);
+    }
+    if (!packageInfoList.isEmpty()) {
+      isFrameworkApp(packageInfoList.get(0)); // Build system signatures list
+    }
+
+    List<Future<Package>> pkgFutures = new ArrayList<>();
+    for (PackageInfo packageInfo : packageInfoList) {
+      pkgFutures.add(
+          mParsePackagesExecutor.submit(
+              () -> {
+                if (mMySettings.isDebug()) {
+                  Util.debugLog(
+                      TAG, "submitPackages: updating package: " + packageInfo.packageName);
+                }
+                // Fetched once for both, the state hash and parsing
+                int[] permsFlags = quickScan ? null : getPermissionsFlags(packageInfo);
+                int stateHash = 0;
+                if (useCache) {
+                  stateHash = getPkgStateHash(packageInfo, permsFlags, appOpsSnapshot);
+                  Package pkg = mPkgCache.get(packageInfo, stateHash);
+                  if (pkg != null) {
+                    return pkg;
+                  }
+                }
+                Package pkg = new Package();
+                if (isPkgUpdated(
+                    packageInfo, pkg, quickScan, appOpsSnapshot, filters, permsFlags)) {
+                  if (useCache) {
+                    mPkgCache.put(packageInfo, stateHash, pkg);
+                  }
+                  return pkg;
+                }
+                return null;
+              }));
+    }
+    return pkgFutures;
+  }
+
+  private void cancelFutures(List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  // Changes if anything other than the package itself changes which affects parsing
+  private int getCacheFingerprint() {
+    return Objects.hash(
+        mMySettings.getFilterPrefsHash(),
+        mMySettings.canReadAppOps(),
+        mPrivDaemonHandler.isSystemUid(),
+        MySettingsFlavor.getInstance().allowCriticalChanges(),
+        Locale.getDefault().toString());
+  }
+
+  /*
+    Changes if the package state which is not reflected in lastUpdateTime changes. It includes
+    the permission flags received from daemon (fixed state of system apps' permissions), the
+    package's permission references, and the definitions of the requested permissions, which
+    may be owned by other packages.
+  */
+  private int getPkgStateHash(
+      PackageInfo packageInfo, int[] permsFlags, AppOpsSnapshot appOpsSnapshot) {
+    int hash =
+        Objects.hash(
+            packageInfo.applicationInfo.enabled,
+            Arrays.hashCode(packageInfo.requestedPermissions),
+            Arrays.hashCode(packageInfo.requestedPermissionsFlags),
+            Arrays.hashCode(permsFlags),
+            mPermRefList.get(packageInfo.packageName));
+    for (String perm : getRequestedPerms(packageInfo)) {
+      hash = 31 * hash + getPermInfo(perm).stateHash;
+    }
+    if (appOpsSnapshot != null) {
+      hash =
+          31 * hash
+              + appOpsSnapshot.getOpsHash(
+                  packageInfo.applicationInfo.uid, packageInfo.packageName);
+    }
+    return hash;
+  }
+
   private long mLastPackageManagerCall = 0;
 
   private void buildPkgInfoList(boolean isBgDeepScan) {
@@ -203,6 +374,14 @@ public class PackageParser {
 
     setProgress(PACKAGES_LIST, true, false, isBgDeepScan);
 
+    // Get sequence number before the list so that no change is missed
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      ChangedPackages changedPackages = mPackageManager.getChangedPackages(0);
+      synchronized (PKG_SEQ_LOCK) {
+        mPkgSeqNumber = changedPackages == null ? 0 : changedPackages.getSequenceNumber();
+      }
+    }
+
     synchronized (mPackageInfoList) {
       mPackageInfoList.clear();
       mPackageInfoList.addAll(mPkgParserFlavor.getPackageList());
@@ -260,18 +439,22 @@ public class PackageParser {
     PackageInfo packageInfo = mPkgParserFlavor.getPackageInfo(pkg);
 
     // Package uninstalled, ref states changed, or disabled from MainActivity
-    if (packageInfo == null || !isPkgUpdated(packageInfo, pkg, false)) {
+    if (packageInfo == null
+        || !isPkgUpdated(packageInfo, pkg, false, null, mMySettings.getFilterSnapshot())) {
       removePackage(pkg);
       return;
     }
 
+    mSearchIndex.update(pkg);
+    mPkgListVersion.incrementAndGet();
+
     // update packages list when a Package's or Permission's state is changed so that RecyclerView
     // is updated on return to MainActivity
     Utils.runInFg(() -> mChangedPackage.setValue(pkg));
 
     // In case of search, also update temporary Package and Perms lists
     if (mMySettings.isSearching()) {
-      updateSearchLists(pkg, true);
+      updateSearchLists(pkg, true, new SearchQuery(mMySettings.getQueryText()), null, false);
     }
   }
 
@@ -285,6 +468,8 @@ public class PackageParser {
       res = mPackagesList.remove(pkg);
     }
     if (res) {
+      mSearchIndex.remove(pkg);
+      mPkgListVersion.incrementAndGet();
       if (mMySettings.isSearching()) {
         removeSearchPackage(pkg);
       } else {
@@ -296,6 +481,162 @@ public class PackageParser {
     }
   }
 
+  //////////////////////////////////////////////////////////////////
+  ////////////////////// INCREMENTAL UPDATES ///////////////////////
+  //////////////////////////////////////////////////////////////////
+
+  // Changes are applied only after the first complete scan. Written by the scan thread, read by
+  // the threads applying changes.
+  private volatile boolean mPkgListBuilt = false;
+
+  // Not guarded by UPDATE_PKG_BG_LOCK, which is held for the whole scan
+  private final Object PKG_SEQ_LOCK = new Object();
+  private volatile int mPkgSeqNumber = 0;
+
+  private final BroadcastReceiver mPkgChangeReceiver =
+      new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+          if (intent.getData() == null) {
+            return;
+          }
+          // ACTION_PACKAGE_REPLACED follows
+          if (intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)
+              && !Intent.ACTION_PACKAGE_REPLACED.equals(intent.getAction())) {
+            return;
+          }
+          String pkgName = intent.getData().getSchemeSpecificPart();
+          if (mMySettings.isDebug()) {
+            Util.debugLog(TAG, "onReceive: " + intent.getAction() + ": " + pkgName);
+          }
+          updatePackages(Collections.singletonList(pkgName));
+        }
+      };
+
+  private boolean mPkgChangeReceiverRegistered = false;
+  private boolean mPkgChangesMissed = false;
+
+  // Called by MainActivity, so that the receiver does not outlive the UI
+  public synchronized void registerPkgChangeReceiver() {
+    if (mPkgChangeReceiverRegistered) {
+      return;
+    }
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+    filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+    filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+    filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+    filter.addDataScheme("package");
+    App.getContext().registerReceiver(mPkgChangeReceiver, filter);
+    mPkgChangeReceiverRegistered = true;
+
+    // Before O, changes cannot be queried with sequence number in updateChangedPackages()
+    if (mPkgChangesMissed && mPkgListBuilt && Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+      updatePackagesList();
+    }
+    mPkgChangesMissed = false;
+  }
+
+  public synchronized void unregisterPkgChangeReceiver() {
+    if (mPkgChangeReceiverRegistered) {
+      App.getContext().unregisterReceiver(mPkgChangeReceiver);
+      mPkgChangeReceiverRegistered = false;
+      mPkgChangesMissed = true;
+    }
+  }
+
+  // Catch up with the changes we might have missed, e.g. in other user profiles
+  public void updateChangedPackages() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || !mPkgListBuilt) {
+      return;
+    }
+    ChangedPackages changedPackages;
+    synchronized (PKG_SEQ_LOCK) {
+      changedPackages = mPackageManager.getChangedPackages(mPkgSeqNumber);
+      if (changedPackages == null) {
+        return;
+      }
+      mPkgSeqNumber = changedPackages.getSequenceNumber();
+    }
+    updatePackages(changedPackages.getPackageNames());
+  }
+
+  private void updatePackages(List<String> pkgNames) {
+    if (!mPkgListBuilt || pkgNames.isEmpty()) {
+      return;
+    }
+    // Run after the ongoing scan, if any
+    synchronized (mUpdatePackagesExecutor) {
+      mUpdatePackagesExecutor.submit(() -> updatePackagesInBg(pkgNames));
+    }
+  }
+
+  private void updatePackagesInBg(List<String> pkgNames) {
+    synchronized (UPDATE_PKG_BG_LOCK) {
+      // Next full scan must not use the stale list
+      mLastPackageManagerCall = 0;
+
+      // Added or removed packages may define permissions
+      mPermInfos.clear();
+
+      for (String pkgName : pkgNames) {
+        if (mMySettings.isDebug()) {
+          Util.debugLog(TAG, "updatePackagesInBg: updating package: " + pkgName);
+        }
+
+        Package pkg = null;
+        synchronized (mPackagesList) {
+          for (Package p : mPackagesList) {
+            if (p.getName().equals(pkgName)) {
+              pkg = p;
+              break;
+            }
+          }
+        }
+
+        // Re-parses and posts to mChangedPackage, or removes if uninstalled or filtered out
+        if (pkg != null) {
+          updatePackage(pkg);
+          continue;
+        }
+
+        PackageInfo packageInfo;
+        try {
+          packageInfo =
+              mPackageManager.getPackageInfo(
+                  pkgName, PackageManager.GET_PERMISSIONS | PM_GET_SIGNATURES);
+        } catch (NameNotFoundException e) {
+          continue; // Uninstalled, and wasn't in the list
+        }
+
+        pkg = new Package();
+        if (isPkgUpdated(packageInfo, pkg, false, null, mMySettings.getFilterSnapshot())) {
+          insertPackage(pkg);
+        }
+      }
+    }
+  }
+
+  private void insertPackage(Package pkg) {
+    Comparator<Package> comparator = mPkgParserFlavor.getPkgComparator();
+    synchronized (mPackagesList) {
+      int pos = 0;
+      while (pos < mPackagesList.size() && comparator.compare(mPackagesList.get(pos), pkg) <= 0) {
+        pos++;
+      }
+      mPackagesList.add(pos, pkg);
+    }
+    mSearchIndex.update(pkg);
+    mPkgListVersion.incrementAndGet();
+    mPkgParserFlavor.onPkgCreated(pkg);
+
+    if (mMySettings.isSearching()) {
+      handleSearchQuery(true);
+    } else {
+      postLiveData(mPackagesList);
+    }
+  }
+
   //////////////////////////////////////////////////////////////////
   ///////////////////////// LIVE UPDATES ///////////////////////////
   //////////////////////////////////////////////////////////////////
@@ -322,6 +663,7 @@ public class PackageParser {
       if (packagesList != null) {
         mPackagesList.clear();
         mPackagesList.addAll(packagesList);
+        mPkgListVersion.incrementAndGet();
       }
     }
     if (!mMySettings.isSearching()) {
@@ -427,32 +769,48 @@ public class PackageParser {
   /////////////////////////// PACKAGES /////////////////////////////
   //////////////////////////////////////////////////////////////////
 
-  private boolean isPkgUpdated(PackageInfo packageInfo, Package pkg, boolean quickScan) {
+  private boolean isPkgUpdated(
+      PackageInfo packageInfo,
+      Package pkg,
+      boolean quickScan,
+      AppOpsSnapshot appOpsSnapshot,
+      FilterSnapshot filters) {
+    int[] permsFlags = quickScan ? null : getPermissionsFlags(packageInfo);
+    return isPkgUpdated(packageInfo, pkg, quickScan, appOpsSnapshot, filters, permsFlags);
+  }
+
+  private boolean isPkgUpdated(
+      PackageInfo packageInfo,
+      Package pkg,
+      boolean quickScan,
+      AppOpsSnapshot appOpsSnapshot,
+      FilterSnapshot filters,
+      int[] permsFlags) {
     if (isFilteredOutPkgName(packageInfo.packageName)) {
       return false;
     }
 
     boolean isSystemApp = isSystemApp(packageInfo);
-    if (isFilteredOutSystemPkg(isSystemApp)) {
+    if (isFilteredOutSystemPkg(isSystemApp, filters)) {
       return false;
     }
 
     boolean isFrameworkApp = isFrameworkApp(packageInfo);
-    if (isFilteredOutFrameworkPkg(isFrameworkApp)) {
+    if (isFilteredOutFrameworkPkg(isFrameworkApp, filters)) {
       return false;
     }
-    if (isFilteredOutUserPkg(isFrameworkApp, isSystemApp)) {
+    if (isFilteredOutUserPkg(isFrameworkApp, isSystemApp, filters)) {
       return false;
     }
 
     ApplicationInfo appInfo = packageInfo.applicationInfo;
 
     boolean isEnabled = appInfo.enabled;
-    if (isFilteredOutDisabledPkg(!isEnabled)) {
+    if (isFilteredOutDisabledPkg(!isEnabled, filters)) {
       return false;
     }
 
-    if (isFilteredOutNoIconPkg(appInfo.icon == 0)) {
+    if (isFilteredOutNoIconPkg(appInfo.icon == 0, filters)) {
       return false;
     }
 
@@ -463,10 +821,11 @@ public class PackageParser {
       if (mMySettings.isDebug()) {
         Util.debugLog(TAG, "isPkgUpdated: building permissions list");
       }
-      permissionsList = getPermissionsList(packageInfo, pkg);
+      permissionsList =
+          getPermissionsList(packageInfo, pkg, appOpsSnapshot, filters, permsFlags);
 
       // Exclude packages with no manifest permissions and no AppOps (excluding extra)
-      if (isFilteredOutNoPermPkg(pkg)) {
+      if (isFilteredOutNoPermPkg(pkg, filters)) {
         return false;
       }
 
@@ -509,7 +868,7 @@ public class PackageParser {
     return (packageInfo.applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
   }
 
-  private List<Signature> mSystemSignatures;
+  private volatile List<Signature> mSystemSignatures;
 
   private boolean isFrameworkApp(PackageInfo packageInfo) {
     if (mSystemSignatures == null) {
@@ -532,28 +891,29 @@ public class PackageParser {
     return mMySettings.isPkgExcluded(pkgName);
   }
 
-  private boolean isFilteredOutSystemPkg(boolean isSystemPkg) {
-    return mMySettings.excludeSystemApps() && isSystemPkg;
+  private boolean isFilteredOutSystemPkg(boolean isSystemPkg, FilterSnapshot filters) {
+    return filters.excludeSystemApps && isSystemPkg;
   }
 
-  private boolean isFilteredOutFrameworkPkg(boolean isFrameworkPkg) {
-    return mMySettings.excludeFrameworkApps() && isFrameworkPkg;
+  private boolean isFilteredOutFrameworkPkg(boolean isFrameworkPkg, FilterSnapshot filters) {
+    return filters.excludeFrameworkApps && isFrameworkPkg;
   }
 
-  private boolean isFilteredOutUserPkg(boolean isFrameworkPkg, boolean isSystemPkg) {
-    return mMySettings.excludeUserApps() && !isFrameworkPkg && !isSystemPkg;
+  private boolean isFilteredOutUserPkg(
+      boolean isFrameworkPkg, boolean isSystemPkg, FilterSnapshot filters) {
+    return filters.excludeUserApps && !isFrameworkPkg && !isSystemPkg;
   }
 
-  private boolean isFilteredOutDisabledPkg(boolean isDisabledPkg) {
-    return mMySettings.excludeDisabledApps() && isDisabledPkg;
+  private boolean isFilteredOutDisabledPkg(boolean isDisabledPkg, FilterSnapshot filters) {
+    return filters.excludeDisabledApps && isDisabledPkg;
   }
 
-  private boolean isFilteredOutNoIconPkg(boolean isNoIconPkg) {
-    return mMySettings.excludeNoIconApps() && isNoIconPkg;
+  private boolean isFilteredOutNoIconPkg(boolean isNoIconPkg, FilterSnapshot filters) {
+    return filters.excludeNoIconApps && isNoIconPkg;
   }
 
-  private boolean isFilteredOutNoPermPkg(Package pkg) {
-    return mMySettings.shouldExcludeNoPermApps()
+  private boolean isFilteredOutNoPermPkg(Package pkg, FilterSnapshot filters) {
+    return filters.excludeNoPermApps
         && pkg.getTotalPermCount() == 0
         && pkg.getTotalAppOpsCount() == 0;
   }
@@ -565,25 +925,69 @@ public class PackageParser {
   // Update changed package and permissions from PackageActivity.
   // Calls to Room database require background execution and are time taking too.
   public void updatePermReferences(String pkgName, String permName, String state) {
-    mPermRefList.remove(pkgName + "_" + permName);
-    if (state != null) {
-      mPermRefList.put(pkgName + "_" + permName, state);
-    }
+    mPermRefList.compute(
+        pkgName,
+        (pkg, permRefs) -> {
+          if (state == null) {
+            if (permRefs != null) {
+              permRefs.remove(permName);
+            }
+            return permRefs == null || permRefs.isEmpty() ? null : permRefs;
+          }
+          if (permRefs == null) {
+            permRefs = new ConcurrentHashMap<>();
+          }
+          // States are a few distinct strings, so share them
+          permRefs.put(permName, state.intern());
+          return permRefs;
+        });
   }
 
+  private volatile boolean mPermRefListBuilt = false;
+
+  // Packages whose references have been loaded before the whole list is built
+  private final Set<String> mPermRefLoadedPkgs = ConcurrentHashMap.newKeySet();
+
   public void buildPermRefList() {
     if (mMySettings.isDebug()) {
       Util.debugLog(TAG, "buildPermRefList() called");
     }
     synchronized (mPermRefList) {
       mPermRefList.clear();
-      for (PermissionEntity entity : mMySettings.getPermDb().getAll()) {
-        mPermRefList.put(entity.pkgName + "_" + entity.permName, entity.state);
+      try (Cursor cursor = mMySettings.getPermDb().getAllCursor()) {
+        int pkgCol = cursor.getColumnIndexOrThrow("pkgName");
+        int permCol = cursor.getColumnIndexOrThrow("permName");
+        int stateCol = cursor.getColumnIndexOrThrow("state");
+        while (cursor.moveToNext()) {
+          String state = cursor.getString(stateCol);
+          if (state != null) {
+            updatePermReferences(cursor.getString(pkgCol), cursor.getString(permCol), state);
+          }
+        }
+      }
+      mPermRefListBuilt = true;
+      mPermRefLoadedPkgs.clear();
+    }
+  }
+
+  // A single package can be parsed before the first scan builds the whole list
+  private void loadPermReferences(String pkgName) {
+    if (!mPermRefLoadedPkgs.add(pkgName)) {
+      return;
+    }
+    for (PermissionEntity entity : mMySettings.getPermDb().getPackage(pkgName)) {
+      if (entity.state != null) {
+        updatePermReferences(entity.pkgName, entity.permName, entity.state);
       }
     }
   }
 
-  private List<Permission> getPermissionsList(PackageInfo packageInfo, Package pkg) {
+  private List<Permission> getPermissionsList(
+      PackageInfo packageInfo,
+      Package pkg,
+      AppOpsSnapshot appOpsSnapshot,
+      FilterSnapshot filters,
+      int[] permsFlags) {
     String[] requestedPermissions = packageInfo.requestedPermissions;
     List<Permission> permissionsList = new ArrayList<>();
 
@@ -592,22 +996,33 @@ public class PackageParser {
     int[] appOpsCount1 = new int[] {0, 0};
     List<Integer> processedAppOps = new ArrayList<>();
 
+    // All AppOps of the package at once, instead of querying for every op
+    PkgAppOps pkgAppOps = null;
+    if (!filters.excludeAppOpsPerms && mMySettings.canReadAppOps()) {
+      pkgAppOps =
+          mAppOpsParser.getPkgAppOps(
+              packageInfo.applicationInfo.uid, packageInfo.packageName, appOpsSnapshot);
+    }
+
     if (requestedPermissions != null) {
       if (mMySettings.isDebug()) {
         Util.debugLog(TAG, "getPermissionsList: parsing permissions list");
       }
-      for (int count = 0; count < requestedPermissions.length; count++) {
-        String perm = requestedPermissions[count].replaceAll("\\s", "");
-        permission = createPermission(packageInfo, perm, count);
-        if (isNotFilteredOut(permission)) {
+      String[] perms = getRequestedPerms(packageInfo);
+      for (int count = 0; count < perms.length; count++) {
+        String perm = perms[count];
+        permission =
+            createPermission(packageInfo, perm, count, permsFlags == null ? -1 : permsFlags[count]);
+        if (isNotFilteredOut(permission, filters)) {
           permissionsList.add(permission);
           permCount++;
         }
 
         // not set AppOps corresponding to manifest permission
-        if (!mMySettings.excludeAppOpsPerms() && mMySettings.canReadAppOps()) {
+        if (pkgAppOps != null) {
           int[] appOpsCount =
-              createPermsAppOpsNotSet(packageInfo, perm, permissionsList, processedAppOps);
+              createPermsAppOpsNotSet(
+                  packageInfo, perm, permissionsList, processedAppOps, pkgAppOps, filters);
           appOpsCount1[0] += appOpsCount[0];
           appOpsCount1[1] += appOpsCount[1];
         }
@@ -620,12 +1035,13 @@ public class PackageParser {
 
     int[] appOpsCount2 = new int[] {0, 0};
     int[] appOpsCount3 = new int[] {0, 0};
-    if (!mMySettings.excludeAppOpsPerms() && mMySettings.canReadAppOps()) {
+    if (pkgAppOps != null) {
       if (mMySettings.isDebug()) {
         Util.debugLog(
             TAG, "getPermissionsList: parsing AppOps not corresponding to any manifest permission");
       }
-      appOpsCount2 = createSetAppOps(packageInfo, permissionsList, processedAppOps);
+      appOpsCount2 =
+          createSetAppOps(packageInfo, permissionsList, processedAppOps, pkgAppOps, filters);
 
       /*
         Do not count extra AppOps if app has no manifest permission and no other AppOp.
@@ -633,7 +1049,7 @@ public class PackageParser {
         AppOps is selected in list.
         In case of quick scan excludeNoPermissionsApps() is ignored, so show all.
       */
-      if (!mMySettings.shouldExcludeNoPermApps()
+      if (!filters.excludeNoPermApps
           || requestedPermissions != null
           || appOpsCount2[0] != 0) {
 
@@ -655,7 +1071,7 @@ public class PackageParser {
           for (int i = 0; i < ops1.size(); i++) {
             ops2[i] = ops1.get(i);
           }
-          appOpsCount3 = createExtraAppOps(packageInfo, permissionsList, ops2);
+          appOpsCount3 = createExtraAppOps(packageInfo, permissionsList, ops2, pkgAppOps, filters);
         }
       }
     }
@@ -672,7 +1088,7 @@ public class PackageParser {
     return permissionsList;
   }
 
-  private boolean isNotFilteredOut(Permission permission) {
+  private boolean isNotFilteredOut(Permission permission, FilterSnapshot filters) {
     // always show extra AppOps except in search query
     if (permission.isExtraAppOp()) {
       return true;
@@ -681,88 +1097,48 @@ public class PackageParser {
     if (mMySettings.isPermExcluded(permission.getName())) {
       return false;
     }
-    if (mMySettings.excludeNotChangeablePerms() && !permission.isChangeable()) {
+    if (filters.excludeNotChangeablePerms && !permission.isChangeable()) {
       return false;
     }
-    if (mMySettings.excludeNotGrantedPerms() && !permission.isGranted()) {
+    if (filters.excludeNotGrantedPerms && !permission.isGranted()) {
       return false;
     }
 
     if (permission.isAppOps()) {
-      return !mMySettings.excludeNotSetAppOps() || permission.isAppOpsSet();
+      return !filters.excludeNotSetAppOps || permission.isAppOpsSet();
     }
 
-    if (mMySettings.excludePrivilegedPerms() && permission.isPrivileged()) {
+    if (filters.excludePrivilegedPerms && permission.isPrivileged()) {
       return false;
     }
-    if (mMySettings.excludeSignaturePerms()
+    if (filters.excludeSignaturePerms
         && permission.getProtectionLevel().equals(Permission.PROTECTION_SIGNATURE)) {
       return false;
     }
-    if (mMySettings.excludeDangerousPerms()
+    if (filters.excludeDangerousPerms
         && permission.getProtectionLevel().equals(Permission.PROTECTION_DANGEROUS)) {
       return false;
     }
-    if (mMySettings.excludeNormalPerms()
+    if (filters.excludeNormalPerms
         && permission.getProtectionLevel().equals(Permission.PROTECTION_NORMAL)) {
       return false;
     }
-    return !mMySettings.excludeInvalidPermissions() || !permission.isProviderMissing();
+    return !filters.excludeInvalidPerms || !permission.isProviderMissing();
   }
 
   //////////////////////////////////////////////////////////////////
   ////////////////////// MANIFEST PERMISSION ///////////////////////
   //////////////////////////////////////////////////////////////////
 
-  private Permission createPermission(PackageInfo packageInfo, String perm, int count) {
+  private Permission createPermission(
+      PackageInfo packageInfo, String perm, int count, int permFlags) {
     int[] requestedPermissionsFlags = packageInfo.requestedPermissionsFlags;
-    String protection = "Unknown";
-    boolean isPrivileged = false;
-    boolean isDevelopment = false;
-    boolean isManifestPermAppOp = false;
     boolean isSystemFixed = false, isPolicyFixed = false;
-    boolean providerMissing = false;
-    CharSequence permDesc = null;
 
     boolean isGranted =
         (requestedPermissionsFlags[count] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
 
-    try {
-      PermissionInfo permissionInfo = mPackageManager.getPermissionInfo(perm, 0);
-
-      int protectionLevel = permissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE;
-      int protectionFlags = permissionInfo.protectionLevel & ~PermissionInfo.PROTECTION_MASK_BASE;
-      @SuppressWarnings("deprecation")
-      int PROTECTION_SIGNATURE_OR_SYSTEM = PermissionInfo.PROTECTION_SIGNATURE_OR_SYSTEM;
-
-      if (protectionLevel == PermissionInfo.PROTECTION_NORMAL) {
-        protection = Permission.PROTECTION_NORMAL;
-      } else if (protectionLevel == PermissionInfo.PROTECTION_DANGEROUS) {
-        protection = Permission.PROTECTION_DANGEROUS;
-      } else if (protectionLevel == PermissionInfo.PROTECTION_SIGNATURE) {
-        protection = Permission.PROTECTION_SIGNATURE;
-      } else if (protectionLevel == PROTECTION_SIGNATURE_OR_SYSTEM) {
-        protection = Permission.PROTECTION_SIGNATURE;
-      } else {
-        Log.e(
-            TAG,
-            "createPermission: protection level for "
-                + permissionInfo.name
-                + ": "
-                + protectionLevel);
-      }
-
-      isPrivileged = (protectionFlags & PermissionInfo.PROTECTION_FLAG_PRIVILEGED) != 0;
-      isDevelopment =
-          protectionLevel == PermissionInfo.PROTECTION_SIGNATURE
-              && (protectionFlags & PermissionInfo.PROTECTION_FLAG_DEVELOPMENT) != 0;
-      isManifestPermAppOp = (protectionFlags & PermissionInfo.PROTECTION_FLAG_APPOP) != 0;
-
-      permDesc = permissionInfo.loadDescription(mPackageManager);
-    } catch (NameNotFoundException ignored) {
-      // permissions provider is not available e.g. Play Services
-      providerMissing = true;
-    }
+    PermInfo permInfo = getPermInfo(perm);
 
     String permState = isGranted ? Permission.GRANTED : Permission.REVOKED;
     RefPair refPair = getReference(packageInfo.packageName, perm, permState);
@@ -770,12 +1146,11 @@ public class PackageParser {
 
     boolean isSystemApp = isSystemApp(packageInfo);
     boolean isFrameworkApp = isFrameworkApp(packageInfo);
-    if (isSystemApp || isFrameworkApp) {
-      int permFlags = getPermissionFlags(perm, packageInfo);
-      if (permFlags >= 0 && getSystemFixedFlag() != null) {
+    if ((isSystemApp || isFrameworkApp) && permFlags >= 0) {
+      if (getSystemFixedFlag() != null) {
         isSystemFixed = (permFlags & getSystemFixedFlag()) != 0;
       }
-      if (permFlags >= 0 && getPolicyFixedFlag() != null) {
+      if (getPolicyFixedFlag() != null) {
         isPolicyFixed = (permFlags & getPolicyFixedFlag()) != 0;
       }
     }
@@ -790,39 +1165,145 @@ public class PackageParser {
         refPair.reference,
         isSystemApp,
         isFrameworkApp,
-        protection,
-        isPrivileged,
-        isDevelopment,
-        isManifestPermAppOp,
+        permInfo.protection,
+        permInfo.isPrivileged,
+        permInfo.isDevelopment,
+        permInfo.isManifestPermAppOp,
         isSystemFixed,
         isPolicyFixed,
-        providerMissing,
-        permDesc);
+        permInfo.providerMissing);
+  }
+
+  // Same permissions are requested by many packages, so resolve each only once per scan
+  private final Map<String, PermInfo> mPermInfos = new ConcurrentHashMap<>();
+
+  private PermInfo getPermInfo(String perm) {
+    PermInfo permInfo = mPermInfos.get(perm);
+    if (permInfo == null) {
+      permInfo = new PermInfo(perm);
+      mPermInfos.put(perm, permInfo);
+    }
+    return permInfo;
+  }
+
+  // For Permission
+  CharSequence getPermDescription(String perm) {
+    return getPermInfo(perm).getDescription();
   }
 
-  private int getPermissionFlags(String perm, PackageInfo packageInfo) {
+  private class PermInfo {
+
+    private final String name;
+    private String protection = "Unknown";
+    private boolean isPrivileged = false;
+    private boolean isDevelopment = false;
+    private boolean isManifestPermAppOp = false;
+    private boolean providerMissing = false;
+
+    // For the package cache, changes if the defining package changes the permission
+    private final int stateHash;
+
+    private CharSequence description;
+    private boolean descriptionLoaded = false;
+
+    private PermInfo(String perm) {
+      name = perm;
+      try {
+        PermissionInfo permissionInfo = mPackageManager.getPermissionInfo(perm, 0);
+
+        int protectionLevel = permissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE;
+        int protectionFlags = permissionInfo.protectionLevel & ~PermissionInfo.PROTECTION_MASK_BASE;
+        @SuppressWarnings("deprecation")
+        int PROTECTION_SIGNATURE_OR_SYSTEM = PermissionInfo.PROTECTION_SIGNATURE_OR_SYSTEM;
+
+        if (protectionLevel == PermissionInfo.PROTECTION_NORMAL) {
+          protection = Permission.PROTECTION_NORMAL;
+        } else if (protectionLevel == PermissionInfo.PROTECTION_DANGEROUS) {
+          protection = Permission.PROTECTION_DANGEROUS;
+        } else if (protectionLevel == PermissionInfo.PROTECTION_SIGNATURE) {
+          protection = Permission.PROTECTION_SIGNATURE;
+        } else if (protectionLevel == PROTECTION_SIGNATURE_OR_SYSTEM) {
+          protection = Permission.PROTECTION_SIGNATURE;
+        } else {
+          Log.e(
+              TAG,
+              "createPermission: protection level for "
+                  + permissionInfo.name
+                  + ": "
+                  + protectionLevel);
+        }
+
+        isPrivileged = (protectionFlags & PermissionInfo.PROTECTION_FLAG_PRIVILEGED) != 0;
+        isDevelopment =
+            protectionLevel == PermissionInfo.PROTECTION_SIGNATURE
+                && (protectionFlags & PermissionInfo.PROTECTION_FLAG_DEVELOPMENT) != 0;
+        isManifestPermAppOp = (protectionFlags & PermissionInfo.PROTECTION_FLAG_APPOP) != 0;
+      } catch (NameNotFoundException ignored) {
+        // permissions provider is not available e.g. Play Services
+        providerMissing = true;
+      }
+      stateHash =
+          Objects.hash(
+              protection, isPrivileged, isDevelopment, isManifestPermAppOp, providerMissing);
+    }
+
+    private synchronized CharSequence getDescription() {
+      if (!descriptionLoaded && !providerMissing) {
+        try {
+          PermissionInfo permissionInfo = mPackageManager.getPermissionInfo(name, 0);
+          description = permissionInfo.loadDescription(mPackageManager);
+        } catch (NameNotFoundException ignored) {
+        }
+      }
+      descriptionLoaded = true;
+      return description;
+    }
+  }
+
+  private static String[] getRequestedPerms(PackageInfo packageInfo) {
+    String[] requestedPermissions = packageInfo.requestedPermissions;
+    if (requestedPermissions == null) {
+      return new String[0];
+    }
+    String[] perms = new String[requestedPermissions.length];
+    for (int count = 0; count < requestedPermissions.length; count++) {
+      perms[count] = requestedPermissions[count].replaceAll("\\s", "");
+    }
+    return perms;
+  }
+
+  // Flags of all permissions of system and framework apps in a single call to daemon
+  private int[] getPermissionsFlags(PackageInfo packageInfo) {
+    if (!isSystemApp(packageInfo) && !isFrameworkApp(packageInfo)) {
+      return null;
+    }
+    String[] perms = getRequestedPerms(packageInfo);
+    if (perms.length == 0) {
+      return null;
+    }
     if (!mMySettings.isPrivDaemonAlive()) {
-      Utils.logDaemonDead(TAG + ": getPermissionFlags");
-      return -1;
+      Utils.logDaemonDead(TAG + ": getPermissionsFlags");
+      return null;
     } else {
-      String command =
-          Commands.GET_PERMISSION_FLAGS
-              + " "
-              + perm
-              + " "
-              + packageInfo.packageName
-              + " "
-              + Utils.getUserId(packageInfo.applicationInfo.uid);
-      Object object = mPrivDaemonHandler.sendRequest(command);
-      if (object instanceof Integer) {
-        return (int) object;
+      StringBuilder command =
+          new StringBuilder(Commands.GET_PERMISSIONS_FLAGS)
+              .append(" ")
+              .append(packageInfo.packageName)
+              .append(" ")
+              .append(Utils.getUserId(packageInfo.applicationInfo.uid));
+      for (String perm : perms) {
+        command.append(" ").append(perm);
+      }
+      Object object = mPrivDaemonHandler.sendRequest(command.toString());
+      if (object instanceof int[] && ((int[]) object).length == perms.length) {
+        return (int[]) object;
       }
     }
-    Log.e(TAG, "Error occurred in getPermissionFlags()");
-    return -1;
+    Log.e(TAG, "Error occurred in getPermissionsFlags()");
+    return null;
   }
 
-  private Integer SYSTEM_FIXED_FLAG = null;
+  private volatile Integer SYSTEM_FIXED_FLAG = null;
 
   public Integer getSystemFixedFlag() {
     if (SYSTEM_FIXED_FLAG != null) {
@@ -851,7 +1332,7 @@ public class PackageParser {
     return SYSTEM_FIXED_FLAG;
   }
 
-  private Integer POLICY_FIXED_FLAG = null;
+  private volatile Integer POLICY_FIXED_FLAG = null;
 
   private Integer getPolicyFixedFlag() {
     if (POLICY_FIXED_FLAG != null) {
@@ -888,7 +1369,9 @@ public class PackageParser {
       PackageInfo packageInfo,
       String perm,
       List<Permission> permissionsList,
-      List<Integer> processedAppOps) {
+      List<Integer> processedAppOps,
+      PkgAppOps pkgAppOps,
+      FilterSnapshot filters) {
 
     Integer mappedOp = mAppOpsParser.getPermToOpCodeMap().get(perm);
     if (mappedOp == null) {
@@ -896,88 +1379,93 @@ public class PackageParser {
     }
     int op = mappedOp;
 
-    List<MyPackageOps> pkgOpsList =
-        mAppOpsParser.getOpsForPackage(
-            packageInfo.applicationInfo.uid, packageInfo.packageName, op);
-
     // do not return changed (set) ops, they are handled separately
-    if (pkgOpsList != null && pkgOpsList.size() == 0) {
-      return createAppOp(packageInfo, op, -1, permissionsList, processedAppOps, false, false, -1);
+    if (pkgAppOps.havePkgOps() && pkgAppOps.getPkgOp(op) == null) {
+      return createAppOp(
+          packageInfo, op, -1, permissionsList, processedAppOps, false, false, -1, filters);
     }
 
     return new int[] {0, 0};
   }
 
   private int[] createSetAppOps(
-      PackageInfo packageInfo, List<Permission> permissionsList, List<Integer> processedAppOps) {
-    return createAppOpsList(packageInfo, permissionsList, processedAppOps, null);
-  }
-
-  private int[] createExtraAppOps(
-      PackageInfo packageInfo, List<Permission> permissionsList, int[] ops) {
-    return createAppOpsList(packageInfo, permissionsList, null, ops);
+      PackageInfo packageInfo,
+      List<Permission> permissionsList,
+      List<Integer> processedAppOps,
+      PkgAppOps pkgAppOps,
+      FilterSnapshot filters) {
+    int[] count1 =
+        createAppOps(
+            packageInfo, permissionsList, processedAppOps, pkgAppOps.getPkgOps(), false, filters);
+
+    // UID mode: android-10.0.0_r1: AppOpsService.java#3378
+    int[] count2 =
+        createAppOps(
+            packageInfo, permissionsList, processedAppOps, pkgAppOps.getUidOps(), true, filters);
+
+    return new int[] {count1[0] + count2[0], count1[1] + count2[1]};
   }
 
-  private int[] createAppOpsList(
+  private int[] createAppOps(
       PackageInfo packageInfo,
       List<Permission> permissionsList,
       List<Integer> processedAppOps,
-      int[] ops) {
-
-    List<MyPackageOps> pkgOpsList = new ArrayList<>();
+      SparseArray<MyOpEntry> opEntries,
+      boolean isPerUid,
+      FilterSnapshot filters) {
     int totalAppOpsCount = 0;
     int appOpsCount = 0;
-    boolean isExtraAppOp = ops != null;
-    int uid = packageInfo.applicationInfo.uid;
-
-    List<MyPackageOps> list;
-    if (isExtraAppOp) {
-      for (int op : ops) {
-        list = mAppOpsParser.getOpsForPackage(uid, packageInfo.packageName, op);
-        if (list != null) {
-          if (list.size() == 0) {
-            int[] count =
-                createAppOp(packageInfo, op, -1, permissionsList, processedAppOps, true, false, -1);
-            totalAppOpsCount += count[0];
-            appOpsCount += count[1];
-          } else {
-            pkgOpsList.addAll(list);
-          }
-        }
-      }
-    } else {
-      list = mAppOpsParser.getOpsForPackage(uid, packageInfo.packageName, null);
-      if (list != null) {
-        pkgOpsList.addAll(list);
-      }
+    for (int i = 0; i < opEntries.size(); i++) {
+      MyOpEntry myOpEntry = opEntries.valueAt(i);
+      int[] count =
+          createAppOp(
+              packageInfo,
+              myOpEntry.getOp(),
+              myOpEntry.getMode(),
+              permissionsList,
+              processedAppOps,
+              false,
+              isPerUid,
+              myOpEntry.getLastAccessTime(),
+              filters);
+      totalAppOpsCount += count[0];
+      appOpsCount += count[1];
+    }
+    return new int[] {totalAppOpsCount, appOpsCount};
+  }
 
-      // UID mode: android-10.0.0_r1: AppOpsService.java#3378
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-        list = mAppOpsParser.getUidOps(uid);
-        if (list != null) {
-          pkgOpsList.addAll(list);
-        }
-      }
+  private int[] createExtraAppOps(
+      PackageInfo packageInfo,
+      List<Permission> permissionsList,
+      int[] ops,
+      PkgAppOps pkgAppOps,
+      FilterSnapshot filters) {
+    int totalAppOpsCount = 0;
+    int appOpsCount = 0;
+    if (!pkgAppOps.havePkgOps()) {
+      return new int[] {0, 0};
     }
 
-    for (MyPackageOps myPackageOps : pkgOpsList) {
-      boolean isPerUid = myPackageOps.getPackageName() == null;
-      for (MyPackageOps.MyOpEntry myOpEntry : myPackageOps.getOps()) {
-        int op = myOpEntry.getOp();
-        long lastAccessTime = myOpEntry.getLastAccessTime();
-        int[] count =
+    for (int op : ops) {
+      MyOpEntry myOpEntry = pkgAppOps.getPkgOp(op);
+      int[] count;
+      if (myOpEntry == null) {
+        count = createAppOp(packageInfo, op, -1, permissionsList, null, true, false, -1, filters);
+      } else {
+        count =
             createAppOp(
                 packageInfo,
                 op,
                 myOpEntry.getMode(),
                 permissionsList,
-                processedAppOps,
-                isExtraAppOp,
-                isPerUid,
-                lastAccessTime);
-        totalAppOpsCount += count[0];
-        appOpsCount += count[1];
+                null,
+                true,
+                false,
+                myOpEntry.getLastAccessTime(),
+                filters);
       }
+      totalAppOpsCount += count[0];
+      appOpsCount += count[1];
     }
     return new int[] {totalAppOpsCount, appOpsCount};
   }
@@ -990,7 +1478,8 @@ public class PackageParser {
       List<Integer> processedAppOps,
       boolean isExtraAppOp,
       boolean isPerUid,
-      long accessTime) {
+      long accessTime,
+      FilterSnapshot filters) {
     int opSwitch = mAppOpsParser.getOpToSwitchList().get(op);
     String dependsOn = op == opSwitch ? null : mAppOpsParser.getAppOpsList().get(opSwitch);
     String opName = mAppOpsParser.getAppOpsList().get(op);
@@ -1028,12 +1517,12 @@ public class PackageParser {
 
     int appOpsCount = 0;
 
-    if (isNotFilteredOut(permission)) {
+    if (isNotFilteredOut(permission, filters)) {
       permissionsList.add(permission);
       appOpsCount = 1;
     } else if (!isExtraAppOp && mMySettings.isExtraAppOp(permission.getName())) {
       permission.setExtraAppOp();
-      if (isNotFilteredOut(permission)) {
+      if (isNotFilteredOut(permission, filters)) {
         permissionsList.add(permission);
         appOpsCount = 1;
       }
@@ -1078,7 +1567,11 @@ public class PackageParser {
   }
 
   private RefPair getReference(String pkgName, String permName, String state) {
-    String refState = mPermRefList.get(pkgName + "_" + permName);
+    if (!mPermRefListBuilt) {
+      loadPermReferences(pkgName);
+    }
+    Map<String, String> permRefs = mPermRefList.get(pkgName);
+    String refState = permRefs == null ? null : permRefs.get(permName);
     if (refState == null) {
       return new RefPair(); // both values null
     }
@@ -1103,24 +1596,29 @@ public class PackageParser {
   ///////////////////////////// SEARCH /////////////////////////////
   //////////////////////////////////////////////////////////////////
 
-  private final ExecutorService mSearchQueryExecutor = Executors.newSingleThreadExecutor();
-  private Future<?> mSearchQueryFuture;
+  // Typing is debounced, and partial results are not posted too frequently
+  private final SearchScheduler mSearchScheduler = new SearchScheduler(150, 250);
 
+  // isFinal is null when called on query change
   public void handleSearchQuery(Boolean isFinal) {
-    synchronized (mSearchQueryExecutor) {
-      if (mSearchQueryFuture != null && !mSearchQueryFuture.isDone()) {
+    synchronized (mSearchScheduler) {
+      if (!mSearchScheduler.isIdle()) {
         if (isFinal != null && !isFinal) {
           return;
         }
         if (mMySettings.isDebug()) {
           Util.debugLog(TAG, "handleSearchQuery: cancelling previous call");
         }
-        mSearchQueryFuture.cancel(true);
       }
 
       if (mMySettings.isSearching()) {
-        mSearchQueryFuture = mSearchQueryExecutor.submit(() -> doSearchInBg(isFinal));
+        if (isFinal == null) {
+          mSearchScheduler.schedule(() -> doSearchInBg(null));
+        } else {
+          mSearchScheduler.scheduleNow(() -> doSearchInBg(isFinal));
+        }
       } else {
+        mSearchScheduler.cancel();
         clearSearchLists();
         postLiveData(mPackagesList);
         if (mMySettings.isDebug()) {
@@ -1133,73 +1631,237 @@ public class PackageParser {
 
   private final Object SEARCH_BG_LOCK = new Object();
 
+  // Incremented whenever packages list or a package changes, so that the last search results
+  // are not reused.
+  private final AtomicInteger mPkgListVersion = new AtomicInteger();
+
+  // Last completed search
+  private SearchQuery mLastQuery;
+  private boolean mLastDeepSearch;
+  private int mLastPkgListVersion;
+  private final List<Package> mLastSearchResult = new ArrayList<>();
+
   private void doSearchInBg(Boolean isFinal) {
     synchronized (SEARCH_BG_LOCK) {
+      SearchQuery query = new SearchQuery(mMySettings.getQueryText());
+      boolean deepSearch = mMySettings.isDeepSearching();
+      int pkgListVersion = mPkgListVersion.get();
+
+      // Query is extended, so search only in the last results
+      boolean narrowDown =
+          deepSearch == mLastDeepSearch
+              && pkgListVersion == mLastPkgListVersion
+              && query.narrows(mLastQuery);
+
+      // Until this search completes
+      mLastQuery = null;
+
       List<Package> origPkgList;
-      synchronized (mPackagesList) {
-        origPkgList = new ArrayList<>(mPackagesList);
+      if (narrowDown) {
+        origPkgList = new ArrayList<>(mLastSearchResult);
+      } else {
+        synchronized (mPackagesList) {
+          origPkgList = new ArrayList<>(mPackagesList);
+        }
       }
 
       synchronized (mSearchPkgList) {
         mSearchPkgList.clear();
       }
 
-      boolean sendProgress = false;
+      SearchIndex.Candidates candidates = mSearchIndex.getCandidates(query, deepSearch);
 
-      for (int i = 0; i < origPkgList.size(); i++) {
-        if (!mIsUpdating && Thread.interrupted()) {
-          if (mMySettings.isDebug()) {
-            Util.debugLog(TAG, "doSearchInBg: breaking loop, new call received");
-          }
+      if (deepSearch) {
+        if (!doDeepSearch(origPkgList, query, candidates, narrowDown, isFinal)) {
           return;
         }
-
-        Package pkg = origPkgList.get(i);
-
-        if (mMySettings.isDeepSearching()) {
-          if (!sendProgress) {
-            if (!mIsUpdating) {
-              sendProgress = true;
-              setProgress(origPkgList.size(), true, false, false);
+      } else {
+        for (Package pkg : origPkgList) {
+          if (!mIsUpdating && Thread.interrupted()) {
+            if (mMySettings.isDebug()) {
+              Util.debugLog(TAG, "doSearchInBg: breaking loop, new call received");
             }
-          } else if (mIsUpdating) {
-            sendProgress = false;
+            return;
           }
-          if (sendProgress) {
-            setProgress(i, false, false, false);
+
+          updateSearchLists(pkg, false, query, candidates, false);
+          if (isFinal == null && shouldUpdateLiveData() && mSearchScheduler.shouldPublish()) {
+            postLiveData(mSearchPkgList);
           }
         }
-        updateSearchLists(pkg, false);
-        if (isFinal == null && shouldUpdateLiveData()) {
-          postLiveData(mSearchPkgList);
-        }
       }
+
+      synchronized (mSearchPkgList) {
+        mLastSearchResult.clear();
+        mLastSearchResult.addAll(mSearchPkgList);
+      }
+      mLastQuery = query;
+      mLastDeepSearch = deepSearch;
+      mLastPkgListVersion = pkgListVersion;
+
       postLiveData(mSearchPkgList);
       showSearchEnds(isFinal);
     }
   }
 
+  private static final int SEARCH_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private final ExecutorService mDeepSearchExecutor = Executors.newFixedThreadPool(SEARCH_THREADS);
+
+  /*
+    Packages are searched in chunks in parallel, but consumed here in the original order.
+    Returns false if interrupted. Like the rest of the search, interrupts are ignored while the
+    packages list is being updated.
+  */
+  private boolean doDeepSearch(
+      List<Package> origPkgList,
+      SearchQuery query,
+      SearchIndex.Candidates candidates,
+      boolean narrowDown,
+      Boolean isFinal) {
+    // Smaller chunks so that slow packages do not keep a single thread busy
+    int chunkSize = Math.max(1, origPkgList.size() / (SEARCH_THREADS * 4));
+
+    // Workers are not interrupted, but stop at the next package
+    AtomicBoolean stop = new AtomicBoolean();
+
+    List<Future<List<Package>>> futures = new ArrayList<>();
+    for (int start = 0; start < origPkgList.size(); start += chunkSize) {
+      List<Package> chunk =
+          origPkgList.subList(start, Math.min(start + chunkSize, origPkgList.size()));
+      futures.add(
+          mDeepSearchExecutor.submit(
+              () -> {
+                List<Package> matches = new ArrayList<>();
+                for (Package pkg : chunk) {
+                  if (stop.get()) {
+                    break; // Cancelled, result is not used
+                  }
+                  if (searchPackage(pkg, query, candidates, narrowDown)) {
+                    matches.add(pkg);
+                  }
+                }
+                return matches;
+              }));
+    }
+
+    boolean sendProgress = false;
+    for (int i = 0; i < futures.size(); i++) {
+      if (!mIsUpdating && Thread.interrupted()) {
+        if (mMySettings.isDebug()) {
+          Util.debugLog(TAG, "doDeepSearch: breaking loop, new call received");
+        }
+        stopWorkers(stop, futures);
+        return false;
+      }
+
+      if (!sendProgress) {
+        if (!mIsUpdating) {
+          sendProgress = true;
+          setProgress(origPkgList.size(), true, false, false);
+        }
+      } else if (mIsUpdating) {
+        sendProgress = false;
+      }
+      if (sendProgress) {
+        setProgress(i * chunkSize, false, false, false);
+      }
+
+      List<Package> matches;
+      try {
+        matches = futures.get(i).get();
+      } catch (InterruptedException e) {
+        if (mIsUpdating) {
+          i--; // Wait for the same chunk again
+          continue;
+        }
+        if (mMySettings.isDebug()) {
+          Util.debugLog(TAG, "doDeepSearch: breaking loop, new call received");
+        }
+        stopWorkers(stop, futures);
+        return false;
+      } catch (ExecutionException e) {
+        Log.e(TAG, "doDeepSearch: " + e.getCause());
+        continue;
+      }
+
+      synchronized (mSearchPkgList) {
+        mSearchPkgList.addAll(matches);
+      }
+      if (isFinal == null && shouldUpdateLiveData() && mSearchScheduler.shouldPublish()) {
+        postLiveData(mSearchPkgList);
+      }
+    }
+    return true;
+  }
+
+  /*
+    Waits until all workers have returned. Otherwise a worker still in searchPackage() may set
+    the old query's search permissions list on a package after the next search has set it.
+  */
+  private static void stopWorkers(AtomicBoolean stop, List<? extends Future<?>> futures) {
+    stop.set(true);
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException ignored) {
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private final List<Package> mSearchPkgList = new ArrayList<>();
 
-  private void updateSearchLists(Package pkg, boolean removeOnly) {
-    String queryText = mMySettings.getQueryText();
-    if (!mMySettings.isDeepSearching()) {
-      if (pkg.contains(queryText)) {
-        if (!removeOnly) {
-          synchronized (mSearchPkgList) {
-            mSearchPkgList.add(pkg);
-          }
+  // Candidates are null if the index cannot be used. With narrowDown, only the permissions found
+  // in the last search are searched.
+  private void updateSearchLists(
+      Package pkg,
+      boolean removeOnly,
+      SearchQuery query,
+      SearchIndex.Candidates candidates,
+      boolean narrowDown) {
+    if (searchPackage(pkg, query, candidates, narrowDown)) {
+      if (!removeOnly) {
+        synchronized (mSearchPkgList) {
+          mSearchPkgList.add(pkg);
         }
-      } else if (removeOnly) {
-        removeSearchPackage(pkg);
       }
-      return;
+    } else if (removeOnly) {
+      removeSearchPackage(pkg);
+    }
+  }
+
+  // Also updates the package's search permissions list in case of deep search.
+  // Called from multiple threads, but for different packages.
+  private boolean searchPackage(
+      Package pkg, SearchQuery query, SearchIndex.Candidates candidates, boolean narrowDown) {
+    if (!mMySettings.isDeepSearching()) {
+      return (candidates == null || candidates.mayMatch(pkg)) && query.matches(pkg);
+    }
+
+    List<Permission> candidatePerms;
+    if (narrowDown) {
+      candidatePerms = pkg.getPermissionsList();
+    } else {
+      candidatePerms = candidates == null ? null : candidates.getPerms(pkg);
+    }
+    if (candidatePerms == null) {
+      candidatePerms = pkg.getFullPermsList();
     }
 
     List<Permission> permList = new ArrayList<>();
     int permCount = 0, appOpsCount = 0;
-    for (Permission perm : pkg.getFullPermsList()) {
-      if (perm.contains(queryText)) {
+    for (Permission perm : candidatePerms) {
+      if (query.matches(perm)) {
         permList.add(perm);
         if (perm.isAppOps()) {
           appOpsCount++;
@@ -1215,15 +1877,7 @@ public class PackageParser {
     pkg.setSearchPermCount(permCount);
     pkg.setSearchAppOpsCount(appOpsCount);
 
-    if (!permList.isEmpty()) {
-      if (!removeOnly) {
-        synchronized (mSearchPkgList) {
-          mSearchPkgList.add(pkg);
-        }
-      }
-    } else if (removeOnly) {
-      removeSearchPackage(pkg);
-    }
+    return !permList.isEmpty();
   }
 
   private void removeSearchPackage(Package pkg) {
@@ -1237,6 +1891,7 @@ public class PackageParser {
 
   private void clearSearchLists() {
     synchronized (SEARCH_BG_LOCK) {
+      mLastQuery = null;
       List<Package> origPkgList;
       synchronized (mSearchPkgList) {
         mSearchPkgList.clear();
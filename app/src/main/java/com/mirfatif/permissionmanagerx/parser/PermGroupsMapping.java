@@ -1,14 +1,35 @@
 package com.mirfatif.permissionmanagerx.parser;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 class PermGroupsMapping {
+
+  // Built once from the arrays below, to avoid linear search for every permission and AppOp
+  private final Map<String, GroupOrderPair> mPermsMap = new HashMap<>();
+  private final Map<String, GroupOrderPair> mAppOpsMap = new HashMap<>();
+  private final GroupOrderPair mOthers;
+
+  PermGroupsMapping() {
+    mOthers = new GroupOrderPair(groups.length, "Others");
+    buildMap(mPermsMap, perms);
+    buildMap(mAppOpsMap, appOps);
+  }
+
+  private void buildMap(Map<String, GroupOrderPair> map, String[] names) {
+    for (int index = 0; index < names.length; index++) {
+      if (names[index] != null) {
+        String group = groups[index] != null ? groups[index] : mOthers.group;
+        // First occurrence wins, like indexOf()
+        map.putIfAbsent(names[index], new GroupOrderPair(index, group));
+      }
+    }
+  }
+
+  // Returned Objects are shared, and must not be modified
   GroupOrderPair getOrderAndGroup(String perm, boolean isAppOp) {
-    int index = Arrays.asList(isAppOp ? appOps : perms).indexOf(perm);
-    GroupOrderPair groupOrderPair = new GroupOrderPair();
-    groupOrderPair.order = index >= 0 ? index : groups.length;
-    groupOrderPair.group = (index >= 0 && groups[index] != null) ? groups[index] : "Others";
-    return groupOrderPair;
+    GroupOrderPair groupOrderPair = (isAppOp ? mAppOpsMap : mPermsMap).get(perm);
+    return groupOrderPair != null ? groupOrderPair : mOthers;
   }
 
   private final String[] groups =
@@ -1768,7 +1789,12 @@ class PermGroupsMapping {
       };
 
   static class GroupOrderPair {
-    public int order;
-    public String group;
+    public final int order;
+    public final String group;
+
+    private GroupOrderPair(int order, String group) {
+      this.order = order;
+      this.group = group;
+    }
   }
 }
@@ -1,10 +1,13 @@
 package com.mirfatif.permissionmanagerx.parser;
 
-import android.text.TextUtils;
 import android.text.format.DateUtils;
 import com.mirfatif.permissionmanagerx.prefs.MySettings;
 import com.mirfatif.permissionmanagerx.prefs.MySettingsFlavor;
 import com.mirfatif.permissionmanagerx.privs.PrivDaemonHandler;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 public class Permission {
@@ -34,7 +37,8 @@ public class Permission {
   private final boolean mIsManifestPermAppOp;
   private final boolean mIsSystemFixed, mIsPolicyFixed;
   private final boolean mProviderMissing;
-  private final CharSequence mPermDesc;
+  private CharSequence mPermDesc;
+  private boolean mPermDescLoaded;
 
   // AppOps
   private final boolean mIsAppOps;
@@ -62,8 +66,7 @@ public class Permission {
       boolean isManifestPermAppOp,
       boolean isSystemFixed,
       boolean isPolicyFixed,
-      boolean providerMissing,
-      CharSequence permDesc) {
+      boolean providerMissing) {
     mOrder = order;
     mIconResId = iconResId;
     mPackageName = packageName;
@@ -80,7 +83,6 @@ public class Permission {
     mIsSystemFixed = isSystemFixed;
     mIsPolicyFixed = isPolicyFixed;
     mProviderMissing = providerMissing;
-    mPermDesc = permDesc;
 
     mIsAppOps = false;
     mIsPerUid = false;
@@ -131,7 +133,88 @@ public class Permission {
     mIsSystemFixed = false;
     mIsPolicyFixed = false;
     mProviderMissing = false;
-    mPermDesc = null;
+    mPermDescLoaded = true;
+  }
+
+  // For PkgCache
+  void writeTo(DataOutput out) throws IOException {
+    out.writeBoolean(mIsAppOps);
+    out.writeInt(mOrder);
+    PkgCache.writeInteger(out, mIconResId);
+    PkgCache.writeString(out, mPackageName);
+    PkgCache.writeString(out, mPermissionName);
+    out.writeBoolean(mIsGranted);
+    PkgCache.writeBoolean(out, mIsReferenced);
+    PkgCache.writeString(out, mReference);
+    out.writeBoolean(mIsSystemApp);
+    out.writeBoolean(mIsFrameworkApp);
+
+    if (mIsAppOps) {
+      out.writeBoolean(mIsPerUid);
+      out.writeBoolean(mIsAppOpsSet);
+      out.writeInt(mAppOpsMode);
+      out.writeLong(mAppOpsAccessTime);
+      PkgCache.writeString(out, mDependsOn);
+      out.writeBoolean(mIsExtraAppOp);
+    } else {
+      PkgCache.writeString(out, mProtectionLevel);
+      out.writeBoolean(mIsPrivileged);
+      out.writeBoolean(mIsDevelopment);
+      out.writeBoolean(mIsManifestPermAppOp);
+      out.writeBoolean(mIsSystemFixed);
+      out.writeBoolean(mIsPolicyFixed);
+      out.writeBoolean(mProviderMissing);
+    }
+  }
+
+  static Permission readFrom(DataInput in) throws IOException {
+    boolean isAppOps = in.readBoolean();
+    int order = in.readInt();
+    Integer iconResId = PkgCache.readInteger(in);
+    String packageName = PkgCache.readString(in);
+    String name = PkgCache.readString(in);
+    boolean isGranted = in.readBoolean();
+    Boolean isReferenced = PkgCache.readBoolean(in);
+    String reference = PkgCache.readString(in);
+    boolean isSystemApp = in.readBoolean();
+    boolean isFrameworkApp = in.readBoolean();
+
+    if (isAppOps) {
+      return new Permission(
+          order,
+          iconResId,
+          packageName,
+          name,
+          isGranted,
+          isReferenced,
+          reference,
+          isSystemApp,
+          isFrameworkApp,
+          in.readBoolean(),
+          in.readBoolean(),
+          in.readInt(),
+          in.readLong(),
+          PkgCache.readString(in),
+          in.readBoolean());
+    }
+
+    return new Permission(
+        order,
+        iconResId,
+        packageName,
+        name,
+        isGranted,
+        isReferenced,
+        reference,
+        isSystemApp,
+        isFrameworkApp,
+        PkgCache.readString(in),
+        in.readBoolean(),
+        in.readBoolean(),
+        in.readBoolean(),
+        in.readBoolean(),
+        in.readBoolean(),
+        in.readBoolean());
   }
 
   public int getOrder() {
@@ -163,23 +246,34 @@ public class Permission {
   }
 
   public String getAppOpsAccessTime() {
-    // Do not show time older than a year, including zero epoch time and -1
-    if (System.currentTimeMillis() - mAppOpsAccessTime > TimeUnit.DAYS.toMillis(365)) {
+    if (!hasRecentAccessTime()) {
       return null;
     }
-    mAppOpsAccessTimeFormatted =
-        DateUtils.getRelativeTimeSpanString(
-                mAppOpsAccessTime, System.currentTimeMillis(), DateUtils.SECOND_IN_MILLIS)
-            .toString();
+    mAppOpsAccessTimeFormatted = formatAppOpsAccessTime();
     return mAppOpsAccessTimeFormatted;
   }
 
+  private String formatAppOpsAccessTime() {
+    if (!hasRecentAccessTime()) {
+      return null;
+    }
+    return DateUtils.getRelativeTimeSpanString(
+            mAppOpsAccessTime, System.currentTimeMillis(), DateUtils.SECOND_IN_MILLIS)
+        .toString();
+  }
+
+  // Do not show time older than a year, including zero epoch time and -1
+  private boolean hasRecentAccessTime() {
+    return System.currentTimeMillis() - mAppOpsAccessTime <= TimeUnit.DAYS.toMillis(365);
+  }
+
   public String dependsOn() {
     return mDependsOn;
   }
 
   public void setExtraAppOp() {
     mIsExtraAppOp = true;
+    mSearchKey = null;
   }
 
   public boolean isExtraAppOp() {
@@ -248,7 +342,14 @@ public class Permission {
     }
   }
 
+  // Loaded only when shown, not for every permission of every package while parsing
   public CharSequence getDescription() {
+    if (!mPermDescLoaded) {
+      if (!mProviderMissing) {
+        mPermDesc = PackageParser.getInstance().getPermDescription(mPermissionName);
+      }
+      mPermDescLoaded = true;
+    }
     return mPermDesc;
   }
 
@@ -287,36 +388,6 @@ public class Permission {
     return protectionLevel;
   }
 
-  public boolean contains(String queryText) {
-    if (!mMySettings.isSpecialSearch()) {
-      return _contains(queryText);
-    }
-
-    boolean isEmpty = true;
-    for (String str : queryText.split("\\|")) {
-      if (TextUtils.isEmpty(str)) {
-        continue;
-      }
-      isEmpty = false;
-      if (contains_(str)) {
-        return true;
-      }
-    }
-    return isEmpty;
-  }
-
-  private boolean contains_(String queryText) {
-    for (String str : queryText.split("&")) {
-      if (TextUtils.isEmpty(str)) {
-        continue;
-      }
-      if (!_contains(str)) {
-        return false;
-      }
-    }
-    return true;
-  }
-
   public static final String FIXED = "Fixed";
   public static final String PRIVILEGED = "Privileged";
   private static final String APP_OPS = "AppOps";
@@ -329,70 +400,89 @@ public class Permission {
   public static final String SEARCH_TIME = ":TIME";
   public static final String SEARCH_EXTRA = ":Extra";
 
-  private boolean _contains(String queryText) {
-    queryText = queryText.toUpperCase();
-
-    boolean contains = true;
-    if (mMySettings.isSpecialSearch() && queryText.startsWith("!")) {
-      queryText = queryText.replaceAll("^!", "");
-      contains = false;
+  private String mSearchKey;
+  private boolean mSearchKeyHasTime;
+
+  /*
+    For SearchQuery. Upper case, built once unless the Permission is changed. Access time gets
+    old without the Permission being changed, so the key with the time tag is built again once
+    the time is not recent anymore. Time tag is never added later, access time doesn't change.
+  */
+  String getSearchKey() {
+    String searchKey = mSearchKey;
+    if (searchKey != null && mSearchKeyHasTime && !hasRecentAccessTime()) {
+      searchKey = null;
     }
-
-    for (String field :
-        new String[] {
-          mPermissionName,
-          ":" + mProtectionLevel,
-          ((mIsAppOps || mIsManifestPermAppOp) ? SEARCH_APP_OPS : ""),
-          ((mIsAppOps && mIsPerUid) ? SEARCH_UID : ""),
-          (mIsPrivileged ? SEARCH_PRIVILEGED : ""),
-          (mIsDevelopment ? SEARCH_DEV : ""),
-          (mIsSystemFixed ? SEARCH_FIXED : ""),
-          (mIsReferenced == null
-              ? Package.SEARCH_ORANGE
-              : (mIsReferenced ? Package.SEARCH_GREEN : Package.SEARCH_RED)),
-          getAppOpsAccessTime() != null ? SEARCH_TIME : "",
-          (mIsExtraAppOp ? SEARCH_EXTRA : "")
-        }) {
-      if (field.toUpperCase().contains(queryText)) {
-        return contains;
-      }
+    if (searchKey == null) {
+      boolean hasTime = hasRecentAccessTime();
+      searchKey =
+          SearchQuery.packFields(
+                  mPermissionName,
+                  ":" + mProtectionLevel,
+                  ((mIsAppOps || mIsManifestPermAppOp) ? SEARCH_APP_OPS : ""),
+                  ((mIsAppOps && mIsPerUid) ? SEARCH_UID : ""),
+                  (mIsPrivileged ? SEARCH_PRIVILEGED : ""),
+                  (mIsDevelopment ? SEARCH_DEV : ""),
+                  (mIsSystemFixed ? SEARCH_FIXED : ""),
+                  (mIsReferenced == null
+                      ? Package.SEARCH_ORANGE
+                      : (mIsReferenced ? Package.SEARCH_GREEN : Package.SEARCH_RED)),
+                  (hasTime ? SEARCH_TIME : ""),
+                  (mIsExtraAppOp ? SEARCH_EXTRA : ""))
+              .toUpperCase();
+      mSearchKeyHasTime = hasTime;
+      mSearchKey = searchKey;
     }
-    return !contains;
+    return searchKey;
   }
 
   // Required for ListAdapter/DiffUtil. Consider which fields can change in a Permission.
+  // Comparison gives the same result when repeated for the payload.
   public boolean areContentsTheSame(Permission newPerm) {
-    if (isReferenced() != null) {
-      if (!isReferenced().equals(newPerm.isReferenced())) {
-        return false;
-      }
-    } else if (newPerm.isReferenced() != null) {
-      return false;
+    return getChanges(newPerm) == 0;
+  }
+
+  // Bits of the UI changes, for DiffUtil payloads
+  public int getChanges(Permission newPerm) {
+    // New Object takes over the old one's row, and what was rendered in it
+    if (newPerm != this) {
+      newPerm.mAppOpsAccessTimeFormatted = mAppOpsAccessTimeFormatted;
     }
 
-    if (!isAppOps()) {
-      return isGranted() == newPerm.isGranted();
+    int changes = 0;
+
+    if (!Objects.equals(isReferenced(), newPerm.isReferenced())) {
+      changes |= CHANGE_REF;
     }
 
-    if (getAppOpsMode() != newPerm.getAppOpsMode()) {
-      return false;
+    if (!isAppOps()) {
+      if (isGranted() != newPerm.isGranted()) {
+        changes |= CHANGE_STATE;
+      }
+      return changes;
     }
 
-    if (isAppOpsSet() != newPerm.isAppOpsSet()) {
-      return false;
+    if (getAppOpsMode() != newPerm.getAppOpsMode() || isAppOpsSet() != newPerm.isAppOpsSet()) {
+      changes |= CHANGE_STATE;
     }
 
     // Compare the new Permission Object's calculated value with previously one's saved value,
     // even if both Objects are the same.
     // If calculated on both, the values are always the same, so UI changes cannot be compared.
-    if (mAppOpsAccessTimeFormatted != null) {
-      if (!mAppOpsAccessTimeFormatted.equals(newPerm.getAppOpsAccessTime())) {
-        return false;
-      }
-    } else if (newPerm.getAppOpsAccessTime() != null) {
-      return false;
+    if (!Objects.equals(mAppOpsAccessTimeFormatted, newPerm.formatAppOpsAccessTime())) {
+      changes |= CHANGE_TIME;
     }
 
-    return isExtraAppOp() == newPerm.isExtraAppOp();
+    if (isExtraAppOp() != newPerm.isExtraAppOp()) {
+      changes |= CHANGE_PROT_LEVEL;
+    }
+
+    return changes;
   }
+
+  // UI changes, for DiffUtil payloads
+  public static final int CHANGE_REF = 1;
+  public static final int CHANGE_STATE = 1 << 1;
+  public static final int CHANGE_TIME = 1 << 2;
+  public static final int CHANGE_PROT_LEVEL = 1 << 3;
 }
@@ -0,0 +1,52 @@
+package com.mirfatif.permissionmanagerx.parser;
+
+import android.util.SparseArray;
+import com.mirfatif.privtasks.MyPackageOps;
+import com.mirfatif.privtasks.MyPackageOps.MyOpEntry;
+import java.util.List;
+
+// Package and UID AppOps of a single package, indexed by op code. Built once per package parse.
+class PkgAppOps {
+
+  private final SparseArray<MyOpEntry> mPkgOps = new SparseArray<>();
+  private final SparseArray<MyOpEntry> mUidOps = new SparseArray<>();
+
+  // Getting AppOps may fail
+  private boolean mHavePkgOps = false;
+
+  void setPkgOps(List<MyPackageOps> pkgOpsList) {
+    mHavePkgOps = true;
+    putAll(mPkgOps, pkgOpsList);
+  }
+
+  void setUidOps(List<MyPackageOps> uidOpsList) {
+    putAll(mUidOps, uidOpsList);
+  }
+
+  private static void putAll(SparseArray<MyOpEntry> opEntries, List<MyPackageOps> pkgOpsList) {
+    for (MyPackageOps pkgOps : pkgOpsList) {
+      if (pkgOps.getOps() != null) {
+        for (MyOpEntry opEntry : pkgOps.getOps()) {
+          opEntries.put(opEntry.getOp(), opEntry);
+        }
+      }
+    }
+  }
+
+  boolean havePkgOps() {
+    return mHavePkgOps;
+  }
+
+  // Null if the op is not set for the package
+  MyOpEntry getPkgOp(int op) {
+    return mPkgOps.get(op);
+  }
+
+  SparseArray<MyOpEntry> getPkgOps() {
+    return mPkgOps;
+  }
+
+  SparseArray<MyOpEntry> getUidOps() {
+    return mUidOps;
+  }
+}
@@ -0,0 +1,253 @@
+package com.mirfatif.permissionmanagerx.parser;
+
+import android.content.pm.PackageInfo;
+import android.util.Log;
+import com.mirfatif.permissionmanagerx.BuildConfig;
+import com.mirfatif.permissionmanagerx.app.App;
+import com.mirfatif.permissionmanagerx.prefs.MySettings;
+import com.mirfatif.privtasks.Util;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed packages saved to disk after every full scan. On app launch the list is shown from the
+ * cache until the scan completes, and the packages not changed since the last scan are not parsed
+ * again. A package is parsed again if its uid, last update time or state (enabled state,
+ * permission grants and flags, AppOps, permission references and definitions of the requested
+ * permissions) changes. All packages are parsed again if the fingerprint (app version, filter
+ * settings, privileges) changes.
+ */
+class PkgCache {
+
+  private static final String TAG = "PkgCache";
+
+  private static PkgCache mPkgCache;
+
+  static synchronized PkgCache getInstance() {
+    if (mPkgCache == null) {
+      mPkgCache = new PkgCache();
+    }
+    return mPkgCache;
+  }
+
+  private PkgCache() {}
+
+  private final MySettings mMySettings = MySettings.getInstance();
+
+  // Increment on every change in the file format
+  private static final int VERSION = 2;
+
+  private final File mCacheFile = new File(App.getContext().getCacheDir(), "packages.cache");
+
+  // Accessed from multiple parser threads
+  private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+  private int mFingerprint;
+  private boolean mLoaded = false;
+
+  /**
+   * Must be called before every scan. Drops cached packages if the fingerprint has changed.
+   *
+   * @return Packages read from the disk, in the order they were saved. Empty on every subsequent
+   *     call.
+   */
+  List<Package> load(int fingerprint) {
+    List<Package> pkgList = new ArrayList<>();
+    if (mLoaded) {
+      if (fingerprint != mFingerprint) {
+        mEntries.clear();
+        mFingerprint = fingerprint;
+      }
+      return pkgList;
+    }
+
+    mLoaded = true;
+    mFingerprint = fingerprint;
+
+    if (!mCacheFile.exists()) {
+      return pkgList;
+    }
+
+    long startTime = System.currentTimeMillis();
+
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(mCacheFile)))) {
+      if (in.readInt() != VERSION
+          || in.readInt() != BuildConfig.VERSION_CODE
+          || in.readInt() != fingerprint) {
+        if (mMySettings.isDebug()) {
+          Util.debugLog(TAG, "load: cache is stale");
+        }
+        return pkgList;
+      }
+
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        int uid = in.readInt();
+        long lastUpdateTime = in.readLong();
+        int stateHash = in.readInt();
+        Package pkg = Package.readFrom(in);
+        mEntries.put(pkg.getName(), new Entry(uid, lastUpdateTime, stateHash, pkg));
+        pkgList.add(pkg);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "load: " + e.toString());
+      mEntries.clear();
+      pkgList.clear();
+    }
+
+    if (mMySettings.isDebug()) {
+      Util.debugLog(
+          TAG,
+          "load: "
+              + pkgList.size()
+              + " packages loaded in "
+              + (System.currentTimeMillis() - startTime)
+              + "ms");
+    }
+    return pkgList;
+  }
+
+  // Returns null if the package is not cached or has changed
+  Package get(PackageInfo packageInfo, int stateHash) {
+    Entry entry = mEntries.get(packageInfo.packageName);
+    if (entry == null
+        || entry.pkg.isRemoved()
+        || entry.uid != packageInfo.applicationInfo.uid
+        || entry.lastUpdateTime != packageInfo.lastUpdateTime
+        || entry.stateHash != stateHash) {
+      return null;
+    }
+    return entry.pkg;
+  }
+
+  void put(PackageInfo packageInfo, int stateHash, Package pkg) {
+    mEntries.put(
+        packageInfo.packageName,
+        new Entry(packageInfo.applicationInfo.uid, packageInfo.lastUpdateTime, stateHash, pkg));
+  }
+
+  // Saves the packages in the given order. Packages not in the list are dropped.
+  void save(List<Package> pkgList) {
+    long startTime = System.currentTimeMillis();
+
+    List<Entry> entries = new ArrayList<>();
+    for (Package pkg : pkgList) {
+      Entry entry = mEntries.get(pkg.getName());
+      if (entry != null && entry.pkg == pkg) {
+        entries.add(entry);
+      }
+    }
+
+    mEntries.clear();
+    for (Entry entry : entries) {
+      mEntries.put(entry.pkg.getName(), entry);
+    }
+
+    File tmpFile = new File(mCacheFile.getPath() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+      out.writeInt(VERSION);
+      out.writeInt(BuildConfig.VERSION_CODE);
+      out.writeInt(mFingerprint);
+      out.writeInt(entries.size());
+      for (Entry entry : entries) {
+        out.writeInt(entry.uid);
+        out.writeLong(entry.lastUpdateTime);
+        out.writeInt(entry.stateHash);
+        entry.pkg.writeTo(out);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "save: " + e.toString());
+      //noinspection ResultOfMethodCallIgnored
+      tmpFile.delete();
+      return;
+    }
+
+    if (!tmpFile.renameTo(mCacheFile)) {
+      Log.e(TAG, "save: failed to rename " + tmpFile);
+      return;
+    }
+
+    if (mMySettings.isDebug()) {
+      Util.debugLog(
+          TAG,
+          "save: "
+              + entries.size()
+              + " packages saved in "
+              + (System.currentTimeMillis() - startTime)
+              + "ms");
+    }
+  }
+
+  private static class Entry {
+
+    private final int uid;
+    private final long lastUpdateTime;
+    private final int stateHash;
+    private final Package pkg;
+
+    private Entry(int uid, long lastUpdateTime, int stateHash, Package pkg) {
+      this.uid = uid;
+      this.lastUpdateTime = lastUpdateTime;
+      this.stateHash = stateHash;
+      this.pkg = pkg;
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////
+  ///////////////////////////// CODEC //////////////////////////////
+  //////////////////////////////////////////////////////////////////
+
+  static void writeString(DataOutput out, String str) throws IOException {
+    if (str == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeBoolean(DataOutput out, Boolean bool) throws IOException {
+    out.writeByte(bool == null ? -1 : (bool ? 1 : 0));
+  }
+
+  static Boolean readBoolean(DataInput in) throws IOException {
+    byte b = in.readByte();
+    return b < 0 ? null : b == 1;
+  }
+
+  static void writeInteger(DataOutput out, Integer integer) throws IOException {
+    out.writeBoolean(integer != null);
+    if (integer != null) {
+      out.writeInt(integer);
+    }
+  }
+
+  static Integer readInteger(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readInt() : null;
+  }
+}
@@ -35,6 +35,11 @@ public class PkgParserFlavor {
                 pkgInfo.applicationInfo.loadLabel(mPackageManager).toString().toUpperCase()));
   }
 
+  // Must be consistent with sortPkgList()
+  Comparator<Package> getPkgComparator() {
+    return Comparator.comparing(pkg -> pkg.getLabel().toUpperCase());
+  }
+
   List<PackageInfo> getPackageList() {
     return mPackageManager.getInstalledPackages(PackageManager.GET_PERMISSIONS | PM_GET_SIGNATURES);
   }
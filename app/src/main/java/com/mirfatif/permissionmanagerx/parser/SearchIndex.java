@@ -0,0 +1,211 @@
+package com.mirfatif.permissionmanagerx.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trigram index over upper case search fields of packages and permissions. For a {@link
+ * SearchQuery} it returns the candidate items which contain all trigrams of at least one group's
+ * terms. Candidates must still be matched with the query, but the rest are not touched at all.
+ *
+ * <p>Built after every scan and updated on every package update. Removed and updated items leave
+ * dead slots in postings, which are reclaimed by rebuilding the index from the live packages once
+ * the dead slots outnumber the live ones.
+ */
+class SearchIndex {
+
+  private static final int GRAM = 3;
+
+  private final List<Package> mPkgs = new ArrayList<>();
+  private final Map<Package, Integer> mPkgIds = new HashMap<>();
+  private final Map<String, Postings> mPkgPostings = new HashMap<>();
+
+  // A package's permissions get consecutive IDs, in the order of its permissions list
+  private final List<Permission> mPerms = new ArrayList<>();
+  private final Map<Package, int[]> mPermIdRanges = new HashMap<>();
+  private final Map<String, Postings> mPermPostings = new HashMap<>();
+
+  // Slots of removed and updated items, still in postings
+  private int mDeadPkgs, mDeadPerms;
+
+  synchronized void build(List<Package> pkgList) {
+    mDeadPkgs = mDeadPerms = 0;
+    mPkgs.clear();
+    mPkgIds.clear();
+    mPkgPostings.clear();
+    mPerms.clear();
+    mPermIdRanges.clear();
+    mPermPostings.clear();
+    for (Package pkg : pkgList) {
+      add(pkg);
+    }
+  }
+
+  synchronized void update(Package pkg) {
+    drop(pkg);
+    add(pkg);
+    compactIfNeeded();
+  }
+
+  synchronized void remove(Package pkg) {
+    drop(pkg);
+    compactIfNeeded();
+  }
+
+  private void drop(Package pkg) {
+    if (mPkgIds.remove(pkg) != null) {
+      mDeadPkgs++;
+    }
+    int[] range = mPermIdRanges.remove(pkg);
+    if (range != null) {
+      mDeadPerms += range[1] - range[0];
+    }
+  }
+
+  // So that the index does not keep growing with package updates in a long running session
+  private void compactIfNeeded() {
+    if (mDeadPkgs > mPkgIds.size() || mDeadPerms > mPerms.size() - mDeadPerms) {
+      build(new ArrayList<>(mPkgIds.keySet()));
+    }
+  }
+
+  private void add(Package pkg) {
+    int pkgId = mPkgs.size();
+    mPkgs.add(pkg);
+    mPkgIds.put(pkg, pkgId);
+    addGrams(mPkgPostings, pkgId, pkg.getSearchKey(true));
+
+    int start = mPerms.size();
+    for (Permission perm : pkg.getFullPermsList()) {
+      int permId = mPerms.size();
+      mPerms.add(perm);
+      addGrams(mPermPostings, permId, perm.getSearchKey());
+    }
+    mPermIdRanges.put(pkg, new int[] {start, mPerms.size()});
+  }
+
+  // Grams spanning two fields are never queried
+  private static void addGrams(Map<String, Postings> postings, int id, String searchKey) {
+    Set<String> grams = new HashSet<>();
+    for (int i = 0; i + GRAM <= searchKey.length(); i++) {
+      grams.add(searchKey.substring(i, i + GRAM));
+    }
+    for (String gram : grams) {
+      Postings ids = postings.get(gram);
+      if (ids == null) {
+        ids = new Postings();
+        postings.put(gram, ids);
+      }
+      ids.add(id);
+    }
+  }
+
+  // Returns null if the query cannot be narrowed down using the index.
+  synchronized Candidates getCandidates(SearchQuery query, boolean deepSearch) {
+    List<String[]> groups = query.getIndexTerms(GRAM);
+    if (groups == null) {
+      return null;
+    }
+
+    Candidates candidates = new Candidates();
+    if (deepSearch) {
+      BitSet permIds = getIds(mPermPostings, groups);
+      for (Map.Entry<Package, int[]> entry : mPermIdRanges.entrySet()) {
+        int[] range = entry.getValue();
+        List<Permission> perms = new ArrayList<>();
+        for (int id = permIds.nextSetBit(range[0]);
+            id >= 0 && id < range[1];
+            id = permIds.nextSetBit(id + 1)) {
+          perms.add(mPerms.get(id));
+        }
+        candidates.mPerms.put(entry.getKey(), perms);
+      }
+    } else {
+      candidates.mIndexedPkgs.addAll(mPkgIds.keySet());
+      BitSet pkgIds = getIds(mPkgPostings, groups);
+      for (int id = pkgIds.nextSetBit(0); id >= 0; id = pkgIds.nextSetBit(id + 1)) {
+        Package pkg = mPkgs.get(id);
+        if (mPkgIds.containsKey(pkg) && mPkgIds.get(pkg) == id) {
+          candidates.mPkgs.add(pkg);
+        }
+      }
+    }
+    return candidates;
+  }
+
+  // Union of groups, and intersection of all trigrams of all terms in a group
+  private static BitSet getIds(Map<String, Postings> postings, List<String[]> groups) {
+    BitSet result = new BitSet();
+    for (String[] terms : groups) {
+      BitSet groupIds = null;
+      for (String term : terms) {
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+          Postings ids = postings.get(term.substring(i, i + GRAM));
+          if (ids == null) {
+            groupIds = new BitSet();
+          } else if (groupIds == null) {
+            groupIds = ids.toBitSet();
+          } else {
+            groupIds.and(ids.toBitSet());
+          }
+          if (groupIds.isEmpty()) {
+            break;
+          }
+        }
+        if (groupIds != null && groupIds.isEmpty()) {
+          break;
+        }
+      }
+      if (groupIds != null) {
+        result.or(groupIds);
+      }
+    }
+    return result;
+  }
+
+  // Result of a query, detached from the index
+  static class Candidates {
+
+    private final Set<Package> mIndexedPkgs = new HashSet<>();
+    private final Set<Package> mPkgs = new HashSet<>();
+    private final Map<Package, List<Permission>> mPerms = new HashMap<>();
+
+    // False if the package is not indexed yet, or does not match for sure
+    boolean mayMatch(Package pkg) {
+      return !mIndexedPkgs.contains(pkg) || mPkgs.contains(pkg);
+    }
+
+    // Candidate permissions of the package in order, or null if the package is not indexed yet
+    List<Permission> getPerms(Package pkg) {
+      return mPerms.get(pkg);
+    }
+  }
+
+  // Growable sorted array of IDs
+  private static class Postings {
+
+    private int[] mIds = new int[4];
+    private int mSize = 0;
+
+    private void add(int id) {
+      if (mSize == mIds.length) {
+        mIds = Arrays.copyOf(mIds, mSize * 2);
+      }
+      mIds[mSize++] = id;
+    }
+
+    private BitSet toBitSet() {
+      BitSet bitSet = new BitSet();
+      for (int i = 0; i < mSize; i++) {
+        bitSet.set(mIds[i]);
+      }
+      return bitSet;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.mirfatif.permissionmanagerx.parser;
+
+import android.text.TextUtils;
+import com.mirfatif.permissionmanagerx.prefs.MySettings;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Search query parsed once, instead of for every {@link Package} and {@link Permission}.
+ *
+ * <p>With special search, query is split on '|' into OR groups, and each group on '&' into terms
+ * which must all match. A term starting with '!' matches if none of the fields contains it. Empty
+ * groups and terms are ignored. Without special search, whole query is a single term.
+ */
+public class SearchQuery {
+
+  private final MySettings mMySettings = MySettings.getInstance();
+
+  private final String mQueryText;
+  private final Term[][] mGroups;
+  private final boolean mCaseSensitive, mSpecialSearch;
+
+  public SearchQuery(String queryText) {
+    if (queryText == null) {
+      queryText = "";
+    }
+    mQueryText = queryText;
+    mCaseSensitive = mMySettings.isCaseSensitiveSearch();
+    mSpecialSearch = mMySettings.isSpecialSearch();
+
+    if (!mSpecialSearch) {
+      mGroups = new Term[][] {{new Term(queryText, false)}};
+      return;
+    }
+
+    List<Term[]> groups = new ArrayList<>();
+    for (String group : queryText.split("\\|")) {
+      if (TextUtils.isEmpty(group)) {
+        continue;
+      }
+      List<Term> terms = new ArrayList<>();
+      for (String term : group.split("&")) {
+        if (TextUtils.isEmpty(term)) {
+          continue;
+        }
+        boolean negate = term.startsWith("!");
+        terms.add(new Term(negate ? term.substring(1) : term, negate));
+      }
+      groups.add(terms.toArray(new Term[0]));
+    }
+    mGroups = groups.toArray(new Term[0][]);
+  }
+
+  // Package search honors case sensitivity setting
+  public boolean matches(Package pkg) {
+    if (mGroups.length == 0) {
+      return true;
+    }
+    return matches(pkg.getSearchKey(!mCaseSensitive), !mCaseSensitive);
+  }
+
+  // Permission search is always case insensitive
+  public boolean matches(Permission perm) {
+    if (mGroups.length == 0) {
+      return true;
+    }
+    return matches(perm.getSearchKey(), true);
+  }
+
+  // Cannot be typed in the query, so a term never matches across two fields
+  private static final char FIELD_SEPARATOR = '\0';
+
+  // Search fields packed into a single key, so that a term is matched with a single contains()
+  static String packFields(String... fields) {
+    StringBuilder builder = new StringBuilder();
+    for (String field : fields) {
+      builder.append(field).append(FIELD_SEPARATOR);
+    }
+    return builder.toString();
+  }
+
+  /*
+    True if this query can only match a subset of what the old query matches, e.g. when a
+    character is typed. Special search queries with operators are not compared.
+  */
+  boolean narrows(SearchQuery oldQuery) {
+    if (oldQuery == null
+        || mCaseSensitive != oldQuery.mCaseSensitive
+        || mSpecialSearch != oldQuery.mSpecialSearch) {
+      return false;
+    }
+    if (mSpecialSearch && (hasOperators(mQueryText) || hasOperators(oldQuery.mQueryText))) {
+      return false;
+    }
+    return mQueryText.length() > oldQuery.mQueryText.length()
+        && mQueryText.contains(oldQuery.mQueryText);
+  }
+
+  private static boolean hasOperators(String queryText) {
+    return queryText.contains("|") || queryText.contains("&") || queryText.contains("!");
+  }
+
+  /*
+    For SearchIndex. Upper case non-negated terms of every group, at least minLength long.
+    Null if any group has no such term, i.e. it may match any item.
+  */
+  List<String[]> getIndexTerms(int minLength) {
+    if (mGroups.length == 0) {
+      return null;
+    }
+    List<String[]> groups = new ArrayList<>();
+    for (Term[] group : mGroups) {
+      List<String> terms = new ArrayList<>();
+      for (Term term : group) {
+        if (!term.negate && term.upperText.length() >= minLength) {
+          terms.add(term.upperText);
+        }
+      }
+      if (terms.isEmpty()) {
+        return null;
+      }
+      groups.add(terms.toArray(new String[0]));
+    }
+    return groups;
+  }
+
+  private boolean matches(String searchKey, boolean upperCase) {
+    for (Term[] group : mGroups) {
+      boolean groupMatches = true;
+      for (Term term : group) {
+        if (!term.matches(searchKey, upperCase)) {
+          groupMatches = false;
+          break;
+        }
+      }
+      if (groupMatches) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class Term {
+
+    private final String text, upperText;
+    private final boolean negate;
+
+    private Term(String text, boolean negate) {
+      this.text = text;
+      this.upperText = text.toUpperCase();
+      this.negate = negate;
+    }
+
+    private boolean matches(String searchKey, boolean upperCase) {
+      return searchKey.contains(upperCase ? upperText : text) != negate;
+    }
+  }
+}
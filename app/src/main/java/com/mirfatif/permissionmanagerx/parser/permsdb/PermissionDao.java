@@ -1,5 +1,6 @@
 package com.mirfatif.permissionmanagerx.parser.permsdb;
 
+import android.database.Cursor;
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
@@ -13,12 +14,19 @@ public interface PermissionDao {
   @Query("SELECT * FROM PermissionEntity")
   LiveData<List<PermissionEntity>> watchAll();
 
-  @Query("SELECT * FROM PermissionEntity")
-  List<PermissionEntity> getAll();
+  // To read all rows in chunks, ordered by the primary key
+  @Query("SELECT * FROM PermissionEntity WHERE id > :lastId ORDER BY id LIMIT :limit")
+  List<PermissionEntity> getChunk(int lastId, int limit);
+
+  // To read all rows one by one, without creating a list of entities
+  @Query("SELECT pkgName, permName, state FROM PermissionEntity")
+  Cursor getAllCursor();
 
-  @Query("SELECT id FROM PermissionEntity WHERE pkgName IS :pkg AND permName IS :permName")
-  int getId(String pkg, String permName);
+  // Uses the (pkgName, permName) index
+  @Query("SELECT * FROM PermissionEntity WHERE pkgName = :pkgName")
+  List<PermissionEntity> getPackage(String pkgName);
 
+  // Upsert, existing rows are replaced on (pkgName, permName) conflict
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   void insertAll(PermissionEntity... entities);
 
@@ -1,9 +1,26 @@
 package com.mirfatif.permissionmanagerx.parser.permsdb;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = PermissionEntity.class, version = 1, exportSchema = false)
+@Database(entities = PermissionEntity.class, version = 2, exportSchema = false)
 public abstract class PermissionDatabase extends RoomDatabase {
   public abstract PermissionDao permissionDao();
+
+  // Unique index on (pkgName, permName). Duplicate rows are dropped, keeping the latest one.
+  public static final Migration MIGRATION_1_2 =
+      new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+          db.execSQL(
+              "DELETE FROM PermissionEntity WHERE id NOT IN"
+                  + " (SELECT MAX(id) FROM PermissionEntity GROUP BY pkgName, permName)");
+          db.execSQL(
+              "CREATE UNIQUE INDEX IF NOT EXISTS `index_PermissionEntity_pkgName_permName`"
+                  + " ON `PermissionEntity` (`pkgName`, `permName`)");
+        }
+      };
 }
@@ -2,9 +2,11 @@ package com.mirfatif.permissionmanagerx.parser.permsdb;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity
+// A single row for a permission of a package, so that insertAll() replaces the existing one
+@Entity(indices = {@Index(value = {"pkgName", "permName"}, unique = true)})
 public class PermissionEntity {
   @PrimaryKey(autoGenerate = true)
   public int id;
@@ -0,0 +1,44 @@
+package com.mirfatif.permissionmanagerx.prefs;
+
+// Immutable copy of the filter settings, so that PackageParser doesn't read preferences for every
+// package and permission. MySettings creates a new one after a filter setting is changed.
+public class FilterSnapshot {
+
+  // apps
+  public final boolean excludeNoIconApps;
+  public final boolean excludeUserApps;
+  public final boolean excludeSystemApps;
+  public final boolean excludeFrameworkApps;
+  public final boolean excludeDisabledApps;
+  public final boolean excludeNoPermApps;
+
+  // permissions
+  public final boolean excludeInvalidPerms;
+  public final boolean excludeNotChangeablePerms;
+  public final boolean excludeNotGrantedPerms;
+  public final boolean excludeNormalPerms;
+  public final boolean excludeDangerousPerms;
+  public final boolean excludeSignaturePerms;
+  public final boolean excludePrivilegedPerms;
+  public final boolean excludeAppOpsPerms;
+  public final boolean excludeNotSetAppOps;
+
+  FilterSnapshot(MySettings mySettings) {
+    excludeNoIconApps = mySettings.excludeNoIconApps();
+    excludeUserApps = mySettings.excludeUserApps();
+    excludeSystemApps = mySettings.excludeSystemApps();
+    excludeFrameworkApps = mySettings.excludeFrameworkApps();
+    excludeDisabledApps = mySettings.excludeDisabledApps();
+    excludeNoPermApps = mySettings.shouldExcludeNoPermApps();
+
+    excludeInvalidPerms = mySettings.excludeInvalidPermissions();
+    excludeNotChangeablePerms = mySettings.excludeNotChangeablePerms();
+    excludeNotGrantedPerms = mySettings.excludeNotGrantedPerms();
+    excludeNormalPerms = mySettings.excludeNormalPerms();
+    excludeDangerousPerms = mySettings.excludeDangerousPerms();
+    excludeSignaturePerms = mySettings.excludeSignaturePerms();
+    excludePrivilegedPerms = mySettings.excludePrivilegedPerms();
+    excludeAppOpsPerms = mySettings.excludeAppOpsPerms();
+    excludeNotSetAppOps = mySettings.excludeNotSetAppOps();
+  }
+}
@@ -2,6 +2,7 @@ package com.mirfatif.permissionmanagerx.prefs;
 
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.SystemClock;
@@ -22,10 +23,14 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -51,6 +56,7 @@ public class MySettings {
     mExcludedAppsPrefKey = getString(R.string.pref_filter_excluded_apps_key);
     mExcludedPermsPrefKey = getString(R.string.pref_filter_excluded_perms_key);
     mExtraAppOpsPrefKey = getString(R.string.pref_filter_extra_appops_key);
+    mPrefs.registerOnSharedPreferenceChangeListener(mFilterPrefsListener);
   }
 
   private boolean mPrivDaemonAlive = false;
@@ -299,17 +305,28 @@ public class MySettings {
     savePref(R.string.pref_main_ask_for_feedback_ts_enc_key, timeStamp);
   }
 
+  private PermissionDatabase mPermDatabase;
   private PermissionDao mPermDb;
 
   public PermissionDao getPermDb() {
     if (mPermDb == null) {
       Class<PermissionDatabase> dbClass = PermissionDatabase.class;
       String dbName = "permissions.db";
-      mPermDb = Room.databaseBuilder(App.getContext(), dbClass, dbName).build().permissionDao();
+      mPermDatabase =
+          Room.databaseBuilder(App.getContext(), dbClass, dbName)
+              .addMigrations(PermissionDatabase.MIGRATION_1_2)
+              .build();
+      mPermDb = mPermDatabase.permissionDao();
     }
     return mPermDb;
   }
 
+  // Rolled back if the body throws. Checked exceptions are wrapped in RuntimeException.
+  public <V> V runInPermDbTransaction(Callable<V> body) {
+    getPermDb();
+    return mPermDatabase.runInTransaction(body);
+  }
+
   private String mQueryText;
 
   public String getQueryText() {
@@ -452,6 +469,37 @@ public class MySettings {
     return getBoolPref(R.string.pref_filter_exclude_not_set_appops_key);
   }
 
+  private FilterSnapshot mFilterSnapshot;
+  private final Object FILTER_SNAPSHOT_LOCK = new Object();
+
+  public FilterSnapshot getFilterSnapshot() {
+    synchronized (FILTER_SNAPSHOT_LOCK) {
+      if (mFilterSnapshot == null) {
+        mFilterSnapshot = new FilterSnapshot(this);
+      }
+      return mFilterSnapshot;
+    }
+  }
+
+  // SharedPreferences keeps a weak reference to the listener. Key is null if prefs are cleared.
+  private final OnSharedPreferenceChangeListener mFilterPrefsListener =
+      (prefs, key) -> {
+        if (key == null
+            || key.startsWith("pref_filter_")
+            || key.equals(getString(R.string.pref_settings_quick_scan_key))) {
+          synchronized (FILTER_SNAPSHOT_LOCK) {
+            mFilterSnapshot = null;
+          }
+        }
+      };
+
+  // Changes if any of the filter settings changes. Defaults are not saved to preferences.
+  public int getFilterPrefsHash() {
+    Map<String, ?> filterPrefs = new HashMap<>(mPrefs.getAll());
+    filterPrefs.keySet().removeIf(key -> !key.startsWith("pref_filter_"));
+    return Objects.hash(filterPrefs, isQuickScanEnabled());
+  }
+
   public boolean canReadAppOps() {
     return canUseHiddenAPIs() || mPrivDaemonAlive;
   }
@@ -10,7 +10,9 @@ import com.mirfatif.permissionmanagerx.prefs.MySettings;
 import com.mirfatif.permissionmanagerx.svc.DaemonCmdRcvSvc;
 import com.mirfatif.permissionmanagerx.svc.LogcatService;
 import com.mirfatif.permissionmanagerx.util.Utils;
+import com.mirfatif.privtasks.BinaryCodec;
 import com.mirfatif.privtasks.Commands;
+import com.mirfatif.privtasks.Util;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -24,6 +26,13 @@ import java.io.Reader;
 import java.net.Inet4Address;
 import java.net.Socket;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PrivDaemonHandler {
 
@@ -183,8 +192,9 @@ public class PrivDaemonHandler {
         return false;
       }
 
-      Log.i(TAG, "startDaemon: sending command: " + Commands.GET_READY);
-      mCmdWriter.println(Commands.GET_READY);
+      String getReady = Commands.GET_READY + " " + Commands.BINARY_CODEC;
+      Log.i(TAG, "startDaemon: sending command: " + getReady);
+      mCmdWriter.println(getReady);
 
       // We have single input stream to read in case of ADB, so
       // we couldn't read log messages before receiving PID and port number.
@@ -217,10 +227,24 @@ public class PrivDaemonHandler {
 
       // Get response to GET_READY command
       Object obj = mResponseInStream.readObject();
-      if (!(obj instanceof String) || !obj.equals(Commands.GET_READY)) {
+      if (!(obj instanceof String) || !((String) obj).startsWith(Commands.GET_READY)) {
         Log.e(TAG, "startDaemon: bad response from privileged daemon");
         return false;
       }
+
+      // Fall back to Java serialization if daemon doesn't agree
+      boolean useBinaryCodec = ((String) obj).endsWith(Commands.BINARY_CODEC);
+      if (mMySettings.isDebug()) {
+        Util.debugLog(TAG, "startDaemon: using binary codec: " + useBinaryCodec);
+      }
+
+      // All further responses are framed with request IDs
+      ObjectInputStream responseInStream = mResponseInStream;
+      Map<Integer, CompletableFuture<Object>> pendingRequests = new ConcurrentHashMap<>();
+      synchronized (SEND_REQ_LOCK) {
+        mPendingRequests = pendingRequests;
+      }
+      Utils.runInBg(() -> readResponses(responseInStream, pendingRequests, useBinaryCodec));
     } catch (IOException | ClassNotFoundException e) {
       e.printStackTrace();
       Log.e(TAG, "startDaemon: error starting privileged daemon");
@@ -294,43 +318,100 @@ public class PrivDaemonHandler {
   }
 
   private final Object SEND_REQ_LOCK = new Object();
+  private final AtomicInteger mNextRequestId = new AtomicInteger(1);
+
+  // Requests sent to daemon but not replied yet. Replaced on every daemon (re)start.
+  private Map<Integer, CompletableFuture<Object>> mPendingRequests = new ConcurrentHashMap<>();
 
   public Object sendRequest(String request) {
     return sendRequest(request, mMySettings.isPrivDaemonAlive());
   }
 
+  // A stalled daemon must not hang the calling thread forever
+  private static final long REQUEST_TIMEOUT_SEC = 60;
+
   private Object sendRequest(String request, boolean isPrivDaemonAlive) {
+    CompletableFuture<Object> future = sendRequestAsync(request, isPrivDaemonAlive);
+    try {
+      return future.get(REQUEST_TIMEOUT_SEC, TimeUnit.SECONDS);
+    } catch (ExecutionException | InterruptedException | TimeoutException e) {
+      Log.e(TAG, "sendRequest: " + request + ": " + e.toString());
+      // Do not keep waiting for the response
+      mPendingRequests.values().remove(future);
+      return null;
+    }
+  }
+
+  /*
+    Multiple threads can send requests without waiting for each other's requests to complete.
+    Daemon may reply out of order, responses are matched with the requests by request ID.
+  */
+  private CompletableFuture<Object> sendRequestAsync(String request, boolean isPrivDaemonAlive) {
+    CompletableFuture<Object> future = new CompletableFuture<>();
     synchronized (SEND_REQ_LOCK) {
       if (!isPrivDaemonAlive) {
         Log.e(TAG, "sendRequest: " + request + ": Privileged daemon is dead");
-        return null;
+        future.complete(null);
+        return future;
       }
 
       if (mCmdWriter == null || mResponseInStream == null) {
         Log.e(TAG, "sendRequest: cmdWriter or ResponseReader is null");
-        return null;
+        future.complete(null);
+        return future;
       }
 
+      int reqId = mNextRequestId.getAndIncrement();
+
       // To avoid getting restarted
       if (request.equals(Commands.SHUTDOWN)) {
         mMySettings.setPrivDaemonAlive(false);
+        future.complete(null);
+      } else {
+        // Register before sending so that a quick response isn't missed
+        mPendingRequests.put(reqId, future);
       }
 
-      mCmdWriter.println(request);
+      mCmdWriter.println(reqId + " " + request);
+    }
+    return future;
+  }
 
-      if (request.equals(Commands.SHUTDOWN)) {
-        return null;
+  private void readResponses(
+      ObjectInputStream inStream,
+      Map<Integer, CompletableFuture<Object>> pendingRequests,
+      boolean useBinaryCodec) {
+    try {
+      while (true) {
+        int reqId = inStream.readInt();
+        Object obj = useBinaryCodec ? BinaryCodec.read(inStream) : inStream.readObject();
+        CompletableFuture<Object> future = pendingRequests.remove(reqId);
+        if (future != null) {
+          future.complete(obj);
+        } else {
+          Log.e(TAG, "readResponses: no request found with ID " + reqId);
+        }
       }
-
-      try {
-        return mResponseInStream.readObject();
-      } catch (IOException | ClassNotFoundException e) {
+    } catch (IOException | ClassNotFoundException e) {
+      // Stream is closed when daemon shuts down or dies
+      if (mMySettings.isPrivDaemonAlive() && inStream == mResponseInStream) {
         e.printStackTrace();
-
-        Log.e(TAG, "sendRequest: restarting privileged daemon");
-        mCmdWriter.println(Commands.SHUTDOWN);
-
-        return null;
+        Log.e(TAG, "readResponses: restarting privileged daemon");
+        synchronized (SEND_REQ_LOCK) {
+          mCmdWriter.println(mNextRequestId.getAndIncrement() + " " + Commands.SHUTDOWN);
+        }
+      }
+    } finally {
+      synchronized (SEND_REQ_LOCK) {
+        // No more requests until the daemon is restarted
+        if (inStream == mResponseInStream) {
+          mResponseInStream = null;
+        }
+        // Don't let the callers wait forever
+        for (CompletableFuture<Object> future : pendingRequests.values()) {
+          future.complete(null);
+        }
+        pendingRequests.clear();
       }
     }
   }
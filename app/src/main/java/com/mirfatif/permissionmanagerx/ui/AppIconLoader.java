@@ -0,0 +1,159 @@
+package com.mirfatif.permissionmanagerx.ui;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+import android.widget.ImageView;
+import com.mirfatif.permissionmanagerx.app.App;
+import com.mirfatif.permissionmanagerx.parser.Package;
+import com.mirfatif.permissionmanagerx.util.Utils;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads app icons on a fixed pool of decoder threads, and keeps them in a memory cache sized by
+ * bitmap bytes. Icons are keyed by package name and update time, so that an updated app's icon is
+ * loaded again. Multiple Views waiting for the same icon share a single request, and a request is
+ * cancelled when no View waits for it anymore.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class AppIconLoader {
+
+  private static AppIconLoader mAppIconLoader;
+
+  static synchronized AppIconLoader getInstance() {
+    if (mAppIconLoader == null) {
+      mAppIconLoader = new AppIconLoader();
+    }
+    return mAppIconLoader;
+  }
+
+  private AppIconLoader() {}
+
+  private final PackageManager mPackageManager = App.getContext().getPackageManager();
+
+  private static final int DECODER_THREADS = 2;
+
+  private final ExecutorService mDecoderExecutor = Executors.newFixedThreadPool(DECODER_THREADS);
+
+  // An eighth of the app's heap, in KB
+  private final LruCache<String, Drawable> mIconCache =
+      new LruCache<String, Drawable>((int) (Runtime.getRuntime().maxMemory() / 1024 / 8)) {
+        @Override
+        protected int sizeOf(String key, Drawable icon) {
+          return getSizeKb(icon);
+        }
+      };
+
+  private final Map<String, Request> mRequests = new HashMap<>();
+
+  // Icon key each View is waiting for
+  private final Map<ImageView, String> mViewKeys = new WeakHashMap<>();
+
+  void load(Package pkg, ImageView iconView) {
+    cancel(iconView);
+
+    String key = pkg.getName() + "_" + pkg.getUpdateDate();
+    Drawable icon = mIconCache.get(key);
+    if (icon != null) {
+      iconView.setImageDrawable(newDrawable(icon));
+      return;
+    }
+
+    // Do not show the icon of the previous package while the ViewHolder is recycled
+    iconView.setImageDrawable(null);
+
+    mViewKeys.put(iconView, key);
+    Request request = mRequests.get(key);
+    if (request == null) {
+      Request newRequest = new Request();
+      newRequest.future = mDecoderExecutor.submit(() -> decode(pkg.getName(), key, newRequest));
+      mRequests.put(key, newRequest);
+      request = newRequest;
+    }
+    request.views.add(iconView);
+  }
+
+  // Called when the View is recycled or bound to another package
+  void cancel(ImageView iconView) {
+    String key = mViewKeys.remove(iconView);
+    if (key == null) {
+      return;
+    }
+    Request request = mRequests.get(key);
+    if (request != null) {
+      request.views.remove(iconView);
+      if (request.views.isEmpty()) {
+        request.future.cancel(true);
+        mRequests.remove(key);
+      }
+    }
+  }
+
+  private void decode(String pkgName, String key, Request request) {
+    Drawable icon;
+    try {
+      int flags = PackageManager.MATCH_UNINSTALLED_PACKAGES;
+      ApplicationInfo appInfo = mPackageManager.getApplicationInfo(pkgName, flags);
+      icon = mPackageManager.getApplicationIcon(appInfo);
+    } catch (NameNotFoundException ignored) {
+      icon = null;
+    }
+
+    if (Thread.interrupted()) {
+      return;
+    }
+
+    Drawable finalIcon = icon;
+    Utils.runInFg(() -> deliver(key, finalIcon, request));
+  }
+
+  private void deliver(String key, Drawable icon, Request request) {
+    // A cancelled request may complete after a new one is made for the same key
+    if (mRequests.get(key) == request) {
+      mRequests.remove(key);
+    }
+    if (icon == null) {
+      return;
+    }
+    mIconCache.put(key, icon);
+    for (ImageView iconView : request.views) {
+      if (key.equals(mViewKeys.get(iconView))) {
+        mViewKeys.remove(iconView);
+        iconView.setImageDrawable(newDrawable(icon));
+      }
+    }
+  }
+
+  // Drawable state is not shared between Views
+  private static Drawable newDrawable(Drawable icon) {
+    Drawable.ConstantState state = icon.getConstantState();
+    return state == null ? icon : state.newDrawable();
+  }
+
+  private static int getSizeKb(Drawable icon) {
+    int bytes;
+    if (icon instanceof BitmapDrawable && ((BitmapDrawable) icon).getBitmap() != null) {
+      bytes = ((BitmapDrawable) icon).getBitmap().getAllocationByteCount();
+    } else {
+      bytes = icon.getIntrinsicWidth() * icon.getIntrinsicHeight() * 4;
+    }
+    return Math.max(1, bytes / 1024);
+  }
+
+  private static class Request {
+
+    private Future<?> future;
+    private final Set<ImageView> views = new HashSet<>();
+  }
+}
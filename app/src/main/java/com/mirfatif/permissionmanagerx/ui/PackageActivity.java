@@ -34,6 +34,7 @@ import com.mirfatif.permissionmanagerx.parser.AppOpsParser;
 import com.mirfatif.permissionmanagerx.parser.Package;
 import com.mirfatif.permissionmanagerx.parser.PackageParser;
 import com.mirfatif.permissionmanagerx.parser.Permission;
+import com.mirfatif.permissionmanagerx.parser.SearchQuery;
 import com.mirfatif.permissionmanagerx.parser.permsdb.PermissionEntity;
 import com.mirfatif.permissionmanagerx.prefs.FilterSettingsActivity;
 import com.mirfatif.permissionmanagerx.prefs.MySettings;
@@ -43,14 +44,12 @@ import com.mirfatif.permissionmanagerx.ui.PermissionAdapter.PermClickListenerWit
 import com.mirfatif.permissionmanagerx.ui.PermissionAdapter.PermLongClickListener;
 import com.mirfatif.permissionmanagerx.ui.PermissionAdapter.PermSpinnerSelectListener;
 import com.mirfatif.permissionmanagerx.ui.base.BaseActivity;
+import com.mirfatif.permissionmanagerx.util.SearchScheduler;
 import com.mirfatif.permissionmanagerx.util.Utils;
 import com.mirfatif.privtasks.Commands;
 import com.mirfatif.privtasks.Util;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class PackageActivity extends BaseActivity {
@@ -262,10 +261,6 @@ public class PackageActivity extends BaseActivity {
             entity.state = permState;
             Utils.runInBg(
                 () -> {
-                  int id = mMySettings.getPermDb().getId(entity.pkgName, entity.permName);
-                  if (id > 0) {
-                    entity.id = id;
-                  }
                   mMySettings.getPermDb().insertAll(entity);
                   mPackageParser.updatePermReferences(
                       mPackage.getName(), permission.getName(), permState);
@@ -429,32 +424,28 @@ public class PackageActivity extends BaseActivity {
   private void submitPermsList() {
     CharSequence queryText = mSearchView == null ? null : mSearchView.getQuery();
     if (queryText == null || TextUtils.isEmpty(queryText)) {
+      mSearchScheduler.cancel();
       submitList(mPermissionsList);
       return;
     }
 
-    synchronized (mSearchExecutor) {
-      if (mSearchFuture != null && !mSearchFuture.isDone()) {
-        mSearchFuture.cancel(true);
-      }
-      mSearchFuture = mSearchExecutor.submit(() -> handleSearchQuery(queryText.toString()));
-    }
+    String query = queryText.toString();
+    mSearchScheduler.schedule(() -> handleSearchQuery(query));
   }
 
-  private final ExecutorService mSearchExecutor = Executors.newSingleThreadExecutor();
-  private Future<?> mSearchFuture;
+  private final SearchScheduler mSearchScheduler = new SearchScheduler(100, 500);
 
   private void handleSearchQuery(String queryText) {
-    long ts = System.currentTimeMillis();
     List<Permission> permList = new ArrayList<>();
+    SearchQuery query = new SearchQuery(queryText);
     for (Permission permission : mPermissionsList) {
-      if (permission.contains(queryText)) {
+      if (query.matches(permission)) {
         permList.add(permission);
       }
       if (Thread.interrupted()) {
         return;
       }
-      if (System.currentTimeMillis() - ts > 500) {
+      if (mSearchScheduler.shouldPublish()) {
         submitList(permList);
       }
     }
@@ -1,10 +1,6 @@
 package com.mirfatif.permissionmanagerx.ui;
 
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.text.style.TextAppearanceSpan;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -18,7 +14,6 @@ import androidx.core.graphics.ColorUtils;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.mirfatif.permissionmanagerx.R;
-import com.mirfatif.permissionmanagerx.app.App;
 import com.mirfatif.permissionmanagerx.parser.Package;
 import com.mirfatif.permissionmanagerx.ui.PackageAdapter.ItemViewHolder;
 import com.mirfatif.permissionmanagerx.ui.base.MyListAdapter;
@@ -28,7 +23,7 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
 
   private final PkgClickListener mPkgClickListener;
   private final PkgLongClickListener mPkgLongClickListener;
-  private final PackageManager mPackageManager;
+  private final AppIconLoader mAppIconLoader = AppIconLoader.getInstance();
 
   // Orange state color
   static final int ORANGE = 0xFFFFC107;
@@ -38,7 +33,6 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
     super(new DiffUtilItemCallBack());
     mPkgClickListener = pkgClickListener;
     mPkgLongClickListener = pkgLongClickListener;
-    mPackageManager = App.getContext().getPackageManager();
   }
 
   // Override Adapter method
@@ -52,11 +46,21 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
     return new ItemViewHolder(itemView);
   }
 
-  // Override Adapter method
+  // Override MyListAdapter method
   // set contents in Views
   @Override
-  public void onBindViewHolder(@NonNull ItemViewHolder holder, int position) {
-    holder.bind(position);
+  protected void onBindViewHolder(@NonNull ItemViewHolder holder, int position, int changes) {
+    holder.bind(position, changes);
+  }
+
+  @Override
+  public void onViewRecycled(@NonNull ItemViewHolder holder) {
+    mAppIconLoader.cancel(holder.iconView);
+  }
+
+  @Override
+  protected String getItemKey(Package pkg) {
+    return pkg.getName();
   }
 
   // Store and recycle items as they are scrolled off screen
@@ -88,7 +92,8 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
       itemView.setOnLongClickListener(this);
     }
 
-    public void bind(int position) {
+    // Only the changed Views are bound, others remain as they are
+    public void bind(int position, int changes) {
       Package pkg = getItem(position);
 
       // Rarely pkg comes null, don't know ATM why
@@ -96,6 +101,29 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
         return;
       }
 
+      if (changes == FULL_BIND) {
+        mAppIconLoader.load(pkg, iconView);
+        packageLabelView.setText(pkg.getLabel());
+      }
+
+      if ((changes & Package.CHANGE_REF) != 0) {
+        bindReference(pkg);
+      }
+      if ((changes & Package.CHANGE_NAME) != 0) {
+        packageNameView.setText(pkg.getFormattedName());
+      }
+      if ((changes & Package.CHANGE_PERM_COUNT) != 0) {
+        permCountView.setText(pkg.getPermCount());
+      }
+      if ((changes & Package.CHANGE_STATE) != 0) {
+        bindState(pkg);
+      }
+      if ((changes & Package.CHANGE_DATE) != 0) {
+        dateView.setText(pkg.getDate());
+      }
+    }
+
+    private void bindReference(Package pkg) {
       if (pkg.shouldShowRefs()) {
         if (pkg.isReferenced() == null) {
           referenceView.setBackgroundColor(ORANGE);
@@ -108,22 +136,9 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
       } else {
         referenceView.setVisibility(View.GONE);
       }
+    }
 
-      Utils.runInBg(
-          () -> {
-            try {
-              int flags = PackageManager.MATCH_UNINSTALLED_PACKAGES;
-              ApplicationInfo appInfo = mPackageManager.getApplicationInfo(pkg.getName(), flags);
-              Drawable icon = mPackageManager.getApplicationIcon(appInfo);
-              Utils.runInFg(() -> iconView.setImageDrawable(icon));
-            } catch (NameNotFoundException ignored) {
-            }
-          });
-
-      packageLabelView.setText(pkg.getLabel());
-      packageNameView.setText(pkg.getFormattedName());
-      permCountView.setText(pkg.getPermCount());
-
+    private void bindState(Package pkg) {
       String packageState = null;
       if (pkg.isCriticalApp()) {
         packageState = "Critical";
@@ -151,8 +166,6 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
         }
         packageStateView.setVisibility(View.VISIBLE);
       }
-
-      dateView.setText(pkg.getDate());
     }
 
     @Override
@@ -192,6 +205,12 @@ public class PackageAdapter extends MyListAdapter<Package, ItemViewHolder> {
     public boolean areContentsTheSame(@NonNull Package oldItem, @NonNull Package newItem) {
       return oldItem.areContentsTheSame(newItem);
     }
+
+    // Called after areContentsTheSame() returned false
+    @Override
+    public Object getChangePayload(@NonNull Package oldItem, @NonNull Package newItem) {
+      return oldItem.getChanges(newItem);
+    }
   }
 
   public interface PkgClickListener {
@@ -65,11 +65,21 @@ public class PermissionAdapter extends MyListAdapter<Permission, ItemViewHolder>
     return new ItemViewHolder(itemView);
   }
 
-  // Override RecyclerView.Adapter method
+  // Override MyListAdapter method
   // set contents in Views
   @Override
-  public void onBindViewHolder(@NonNull ItemViewHolder holder, int position) {
-    holder.bind(position);
+  protected void onBindViewHolder(@NonNull ItemViewHolder holder, int position, int changes) {
+    holder.bind(position, changes);
+  }
+
+  @Override
+  protected String getItemKey(Permission perm) {
+    return getKey(perm);
+  }
+
+  // A manifest permission and an AppOp can have the same name
+  private static String getKey(Permission perm) {
+    return (perm.isAppOps() ? "AppOps:" : "Perm:") + perm.getName();
   }
 
   // Store and recycle items as they are scrolled off screen
@@ -105,9 +115,58 @@ public class PermissionAdapter extends MyListAdapter<Permission, ItemViewHolder>
       itemView.setOnLongClickListener(this);
     }
 
-    public void bind(int position) {
+    // Only the changed Views are bound, others remain as they are
+    public void bind(int position, int changes) {
       Permission perm = getItem(position);
 
+      if ((changes & Permission.CHANGE_REF) != 0) {
+        bindReference(perm);
+      }
+
+      if (changes == FULL_BIND) {
+        if (perm.getIconResId() != null) {
+          groupIconView.setImageResource(perm.getIconResId());
+        }
+
+        spinnerContainer.setOnClickListener(null);
+
+        if (perm.isAppOps()) {
+          if (perm.dependsOn() == null) {
+            spinnerContainer.setVisibility(View.VISIBLE);
+            spinnerContainer.setOnClickListener(v -> spinner.performClick());
+          } else {
+            spinnerContainer.setVisibility(View.INVISIBLE);
+          }
+
+          if (perm.getName().equals("RUN_IN_BACKGROUND")
+              || perm.getName().equals("RUN_ANY_IN_BACKGROUND")) {
+            spinner.setAdapter(getAppOpModesAdapter(true));
+          } else {
+            spinner.setAdapter(getAppOpModesAdapter(false));
+          }
+          stateSwitch.setVisibility(View.GONE);
+        } else {
+          spinnerContainer.setVisibility(View.GONE);
+        }
+
+        permissionNameView.setText(perm.getPermNameString());
+      }
+
+      if ((changes & Permission.CHANGE_PROT_LEVEL) != 0) {
+        bindProtectionLevel(perm);
+      }
+      if ((changes & Permission.CHANGE_TIME) != 0) {
+        bindAccessTime(perm);
+      }
+      if ((changes & Permission.CHANGE_STATE) != 0) {
+        bindState(perm);
+      }
+
+      // Permission Object may have changed even if its state has not
+      bindListeners(perm);
+    }
+
+    private void bindReference(Permission perm) {
       appOpsRefStateView.setVisibility(View.GONE);
       if (perm.isReferenced() == null) {
         referenceView.setBackgroundColor(PackageAdapter.ORANGE);
@@ -122,28 +181,10 @@ public class PermissionAdapter extends MyListAdapter<Permission, ItemViewHolder>
       } else {
         referenceView.setBackgroundColor(Color.GREEN);
       }
+    }
 
-      if (perm.getIconResId() != null) {
-        groupIconView.setImageResource(perm.getIconResId());
-      }
-
-      spinnerContainer.setOnClickListener(null);
-
-      if (perm.isAppOps()) {
-        if (perm.dependsOn() == null) {
-          spinnerContainer.setVisibility(View.VISIBLE);
-          spinnerContainer.setOnClickListener(v -> spinner.performClick());
-        } else {
-          spinnerContainer.setVisibility(View.INVISIBLE);
-        }
-      }
-
-      permissionNameView.setText(perm.getPermNameString());
-      appOpsTimeView.setVisibility(View.GONE);
-
-      boolean isChangeable = perm.isChangeable();
-
-      if (perm.isCritical() && isChangeable) {
+    private void bindProtectionLevel(Permission perm) {
+      if (perm.isCritical() && perm.isChangeable()) {
         protectionLevelView.setText(
             Utils.getHighlightString(
                 perm.getProtLevelString(),
@@ -154,7 +195,10 @@ public class PermissionAdapter extends MyListAdapter<Permission, ItemViewHolder>
       } else {
         protectionLevelView.setText(perm.getProtLevelString());
       }
+    }
 
+    private void bindAccessTime(Permission perm) {
+      appOpsTimeView.setVisibility(View.GONE);
       if (perm.isAppOps()) {
         String time = perm.getAppOpsAccessTime();
         if (time != null) {
@@ -162,34 +206,32 @@ public class PermissionAdapter extends MyListAdapter<Permission, ItemViewHolder>
           appOpsTimeView.setTextColor(getRedBlend(appOpsTimeView.getCurrentTextColor()));
           appOpsTimeView.setVisibility(View.VISIBLE);
         }
+      }
+    }
 
-        if (perm.getName().equals("RUN_IN_BACKGROUND")
-            || perm.getName().equals("RUN_ANY_IN_BACKGROUND")) {
-          spinner.setAdapter(getAppOpModesAdapter(true));
-        } else {
-          spinner.setAdapter(getAppOpModesAdapter(false));
-        }
-
+    private void bindState(Permission perm) {
+      if (perm.isAppOps()) {
         spinner.setSelection(perm.getAppOpsMode());
-        spinner.setOnItemSelectedListener(new AppOpsModeSelectListener(perm));
-        stateSwitch.setVisibility(View.GONE);
-        spinner.setEnabled(isChangeable);
+        spinner.setEnabled(perm.isChangeable());
         appOpsDefaultView.setVisibility(perm.isAppOpsSet() ? View.GONE : View.VISIBLE);
-
+      } else if (perm.isProviderMissing()) {
+        stateSwitch.setVisibility(View.INVISIBLE);
       } else {
-        if (perm.isProviderMissing()) {
-          stateSwitch.setVisibility(View.INVISIBLE);
-        } else {
-          stateSwitch.setChecked(perm.isGranted());
-          stateSwitch.setEnabled(isChangeable);
-          stateSwitch.setOnClickListener(
-              v -> {
-                stateSwitch.setChecked(perm.isGranted()); // Do not change the state here
-                mSwitchToggleListener.onClick(perm);
-              });
-          stateSwitch.setVisibility(View.VISIBLE);
-        }
-        spinnerContainer.setVisibility(View.GONE);
+        stateSwitch.setChecked(perm.isGranted());
+        stateSwitch.setEnabled(perm.isChangeable());
+        stateSwitch.setVisibility(View.VISIBLE);
+      }
+    }
+
+    private void bindListeners(Permission perm) {
+      if (perm.isAppOps()) {
+        spinner.setOnItemSelectedListener(new AppOpsModeSelectListener(perm));
+      } else if (!perm.isProviderMissing()) {
+        stateSwitch.setOnClickListener(
+            v -> {
+              stateSwitch.setChecked(perm.isGranted()); // Do not change the state here
+              mSwitchToggleListener.onClick(perm);
+            });
       }
     }
 
@@ -316,13 +358,19 @@ public class PermissionAdapter extends MyListAdapter<Permission, ItemViewHolder>
   private static class DiffUtilItemCallBack extends DiffUtil.ItemCallback<Permission> {
     @Override
     public boolean areItemsTheSame(@NonNull Permission oldItem, @NonNull Permission newItem) {
-      return oldItem.getName().equals(newItem.getName());
+      return getKey(oldItem).equals(getKey(newItem));
     }
 
     @Override
     public boolean areContentsTheSame(@NonNull Permission oldItem, @NonNull Permission newItem) {
       return oldItem.areContentsTheSame(newItem);
     }
+
+    // Called after areContentsTheSame() returned false
+    @Override
+    public Object getChangePayload(@NonNull Permission oldItem, @NonNull Permission newItem) {
+      return oldItem.getChanges(newItem);
+    }
   }
 
   interface PermClickListener {
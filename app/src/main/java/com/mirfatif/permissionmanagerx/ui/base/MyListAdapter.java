@@ -2,11 +2,14 @@ package com.mirfatif.permissionmanagerx.ui.base;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AsyncDifferConfig;
 import androidx.recyclerview.widget.DiffUtil.ItemCallback;
 import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import com.mirfatif.permissionmanagerx.util.Utils;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -14,10 +17,78 @@ import java.util.concurrent.Future;
 public abstract class MyListAdapter<T, VH extends RecyclerView.ViewHolder>
     extends ListAdapter<T, VH> {
 
+  /*
+    Shared by all subclasses (packages and permissions lists) instead of AsyncListDiffer's default
+    executor. Each adapter diffs one list at a time (see below), and usually only the visible
+    Activity's list changes. So a single thread keeps the thread count bounded without making the
+    diffs wait much.
+  */
+  private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
   protected MyListAdapter(@NonNull ItemCallback<T> diffCallback) {
-    super(diffCallback);
+    super(
+        new AsyncDifferConfig.Builder<>(diffCallback)
+            .setBackgroundThreadExecutor(DIFF_EXECUTOR)
+            .build());
+    setHasStableIds(true);
+  }
+
+  //////////////////////////////////////////////////////////////////
+  /////////////////////////// STABLE IDS ///////////////////////////
+  //////////////////////////////////////////////////////////////////
+
+  // Accessed only on main thread
+  private final Map<String, Long> mItemIds = new HashMap<>();
+
+  // Must be unique in a list, and same for the same item in every list
+  protected abstract String getItemKey(T item);
+
+  @Override
+  public long getItemId(int position) {
+    T item = getItem(position);
+    if (item == null) {
+      return RecyclerView.NO_ID;
+    }
+    String key = getItemKey(item);
+    Long id = mItemIds.get(key);
+    if (id == null) {
+      id = (long) mItemIds.size();
+      mItemIds.put(key, id);
+    }
+    return id;
+  }
+
+  //////////////////////////////////////////////////////////////////
+  ///////////////////////// PARTIAL BINDING ////////////////////////
+  //////////////////////////////////////////////////////////////////
+
+  // All bits set, bind all Views
+  protected static final int FULL_BIND = ~0;
+
+  /*
+    Payloads are the bits of changed fields returned by ItemCallback#getChangePayload(). They are
+    empty when the ViewHolder is bound to a new position or the change is unknown.
+  */
+  @Override
+  public void onBindViewHolder(@NonNull VH holder, int position, @NonNull List<Object> payloads) {
+    int changes = payloads.isEmpty() ? FULL_BIND : 0;
+    for (Object payload : payloads) {
+      changes |= payload instanceof Integer ? (Integer) payload : FULL_BIND;
+    }
+    // Item was bound again before the payload was dispatched
+    if (changes == 0) {
+      changes = FULL_BIND;
+    }
+    onBindViewHolder(holder, position, changes);
+  }
+
+  @Override
+  public void onBindViewHolder(@NonNull VH holder, int position) {
+    onBindViewHolder(holder, position, FULL_BIND);
   }
 
+  protected abstract void onBindViewHolder(@NonNull VH holder, int position, int changes);
+
   /*
     We rely on submitList() to keep track of UI changes in Package Objects because new Objects are
     not always created and hence we cannot compare two Package Objects to determine UI changes.
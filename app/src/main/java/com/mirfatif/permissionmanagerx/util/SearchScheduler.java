@@ -0,0 +1,76 @@
+package com.mirfatif.permissionmanagerx.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs search tasks on a single background thread. A new task replaces the pending or running
+ * one (latest wins), and is run after a debounce delay so that searching starts only when typing
+ * pauses. Tasks should check {@link Thread#interrupted()} to stop early, and {@link
+ * #shouldPublish()} before publishing partial results.
+ */
+public class SearchScheduler {
+
+  private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+  private final long mDebounceMillis, mPublishIntervalMillis;
+
+  private ScheduledFuture<?> mFuture;
+
+  // Accessed only from the executor thread
+  private long mLastPublishTime;
+
+  public SearchScheduler(long debounceMillis, long publishIntervalMillis) {
+    mDebounceMillis = debounceMillis;
+    mPublishIntervalMillis = publishIntervalMillis;
+  }
+
+  // Run after the debounce delay, unless another task is scheduled in the meantime.
+  public synchronized void schedule(Runnable task) {
+    submit(task, mDebounceMillis);
+  }
+
+  // Run without delay, e.g. when not triggered by typing.
+  public synchronized void scheduleNow(Runnable task) {
+    submit(task, 0);
+  }
+
+  private void submit(Runnable task, long delay) {
+    cancel();
+    mFuture =
+        mExecutor.schedule(
+            () -> {
+              mLastPublishTime = System.currentTimeMillis();
+              task.run();
+            },
+            delay,
+            TimeUnit.MILLISECONDS);
+  }
+
+  // Cancels the pending task or interrupts the running one.
+  public synchronized void cancel() {
+    if (mFuture != null) {
+      mFuture.cancel(true);
+      mFuture = null;
+    }
+  }
+
+  public synchronized boolean isIdle() {
+    return mFuture == null || mFuture.isDone();
+  }
+
+  /*
+    To be called from the running task. Partial results are published not more often than the
+    interval, counted from the start of the task, so that ListAdapter is not flooded with diffs.
+  */
+  public boolean shouldPublish() {
+    long now = System.currentTimeMillis();
+    if (now - mLastPublishTime < mPublishIntervalMillis) {
+      return false;
+    }
+    mLastPublishTime = now;
+    return true;
+  }
+}
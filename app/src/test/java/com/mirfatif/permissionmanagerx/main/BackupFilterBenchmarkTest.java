@@ -0,0 +1,85 @@
+package com.mirfatif.permissionmanagerx.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/*
+  Timing harness for the lookups done for every entry of a large backup. Run with:
+  ./gradlew :app:testDebugUnitTest --tests '*BackupFilterBenchmarkTest' -i
+*/
+public class BackupFilterBenchmarkTest {
+
+  private static final int PACKAGES = 2_000;
+  private static final int PREF_KEYS = 200;
+  private static final int ENTRIES = 100_000;
+  private static final int WARMUP_ROUNDS = 5;
+
+  @Test
+  public void isInstalled() {
+    List<String> pkgNames = new ArrayList<>();
+    for (int i = 0; i < PACKAGES; i++) {
+      pkgNames.add("com.example.app" + i);
+    }
+    BackupFilter filter = new BackupFilter();
+    filter.setInstalledPackages(pkgNames);
+
+    // Every other entry belongs to an uninstalled package
+    String[] entries = new String[ENTRIES];
+    for (int i = 0; i < ENTRIES; i++) {
+      entries[i] = "com.example.app" + (i % (PACKAGES * 2));
+    }
+
+    int installed = 0;
+    for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+      long startTime = System.nanoTime();
+      installed = 0;
+      for (String pkgName : entries) {
+        if (filter.isInstalled(pkgName)) {
+          installed++;
+        }
+      }
+      if (round == WARMUP_ROUNDS) {
+        log("isInstalled", startTime);
+      }
+    }
+    assertEquals(ENTRIES / 2, installed);
+  }
+
+  @Test
+  public void isInvalidPrefKey() {
+    List<String> prefKeys = new ArrayList<>();
+    for (int i = 0; i < PREF_KEYS; i++) {
+      prefKeys.add("pref_key_" + i);
+    }
+    BackupFilter filter = new BackupFilter();
+    filter.setPrefKeys(prefKeys);
+
+    String[] entries = new String[ENTRIES];
+    for (int i = 0; i < ENTRIES; i++) {
+      entries[i] = "pref_key_" + (i % (PREF_KEYS * 2));
+    }
+
+    int invalid = 0;
+    for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+      long startTime = System.nanoTime();
+      invalid = 0;
+      for (String prefKey : entries) {
+        if (filter.isInvalidPrefKey(prefKey)) {
+          invalid++;
+        }
+      }
+      if (round == WARMUP_ROUNDS) {
+        log("isInvalidPrefKey", startTime);
+      }
+    }
+    assertEquals(ENTRIES / 2, invalid);
+  }
+
+  private static void log(String name, long startTime) {
+    long micros = (System.nanoTime() - startTime) / 1000;
+    System.out.println(name + ": " + ENTRIES + " lookups in " + micros + "us");
+  }
+}
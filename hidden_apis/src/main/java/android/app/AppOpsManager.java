@@ -10,6 +10,8 @@ public class AppOpsManager {
     public abstract List<OpEntry> getOps();
 
     public abstract String getPackageName();
+
+    public abstract int getUid();
   }
 
   public abstract static class OpEntry {
@@ -17,6 +17,8 @@ public interface IAppOpsService {
 
   List<PackageOps> getOpsForPackage(int uid, String packageName, int[] ops) throws RemoteException;
 
+  List<PackageOps> getPackagesForOps(int[] ops) throws RemoteException;
+
   abstract class Stub {
 
     @SuppressWarnings("UnusedDeclaration")
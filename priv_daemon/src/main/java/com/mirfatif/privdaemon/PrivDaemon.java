@@ -2,6 +2,7 @@ package com.mirfatif.privdaemon;
 
 import android.os.Process;
 import android.util.Log;
+import com.mirfatif.privtasks.BinaryCodec;
 import com.mirfatif.privtasks.Commands;
 import com.mirfatif.privtasks.PrivTasks;
 import com.mirfatif.privtasks.PrivTasks.PrivTasksCallback;
@@ -19,6 +20,9 @@ import java.net.Inet4Address;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class PrivDaemon {
 
@@ -28,7 +32,7 @@ public class PrivDaemon {
   private OutputStream mOutputStream;
   private InputStream mInputStream;
   private BufferedReader mCmdReader;
-  private boolean DEBUG;
+  private volatile boolean DEBUG;
   private String mCodeWord;
 
   private PrivDaemon(String[] arguments) {
@@ -114,12 +118,49 @@ public class PrivDaemon {
          * with write().
          */
         String[] args = line.trim().replaceAll("  +", " ").split(" ");
-        if (args[0].equals(Commands.SHUTDOWN)) {
+
+        // The only command not framed with a request ID
+        if (args[0].equals(Commands.GET_READY)) {
+          mStdOutStream = new ObjectOutputStream(mOutputStream);
+          mCmdReader = new BufferedReader(new InputStreamReader(mInputStream));
+          mUseBinaryCodec = Arrays.asList(args).contains(Commands.BINARY_CODEC);
+          if (mUseBinaryCodec) {
+            sendResponse(Commands.GET_READY + " " + Commands.BINARY_CODEC);
+          } else {
+            sendResponse(Commands.GET_READY);
+          }
+          continue;
+        }
+
+        int reqId;
+        try {
+          reqId = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+          System.err.println("Bad request ID: " + line);
+          continue;
+        }
+
+        String[] cmd = Arrays.copyOfRange(args, 1, args.length);
+        if (cmd.length == 0) {
+          System.err.println("No command: " + line);
+          continue;
+        }
+        if (cmd[0].equals(Commands.SHUTDOWN)) {
           break;
-        } else {
-          handleCommand(args);
         }
+
+        // Do not block the reader; replies are matched with requests by ID on the other end.
+        mWorkerPool.execute(() -> handleCommand(reqId, cmd));
       }
+
+      mWorkerPool.shutdown();
+      try {
+        if (!mWorkerPool.awaitTermination(5, TimeUnit.SECONDS)) {
+          Log.e(TAG, "Worker pool not terminated");
+        }
+      } catch (InterruptedException ignored) {
+      }
+
       if (client != null) {
         if (DEBUG) {
           Log.d(TAG, "Closing client socket");
@@ -152,98 +193,109 @@ public class PrivDaemon {
         });
   }
 
-  private void handleCommand(String[] args) throws IOException {
+  /*
+    Commands are executed in parallel, so keep the pool small to not choke system_server.
+    PrivTasks (and HiddenAPIs behind it) was called from a single thread before, now it's called
+    from these 4 threads concurrently. So it must not keep unsynchronized mutable state.
+  */
+  private final ExecutorService mWorkerPool = Executors.newFixedThreadPool(4);
+
+  private void handleCommand(int reqId, String[] args) {
     switch (args[0]) {
-      case Commands.GET_READY:
-        mStdOutStream = new ObjectOutputStream(mOutputStream);
-        mCmdReader = new BufferedReader(new InputStreamReader(mInputStream));
-        sendResponse(Commands.GET_READY);
-        break;
       case Commands.STOP_LOGGING:
         DEBUG = false;
         Log.i(TAG, "Please " + Commands.STOP_LOGGING);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.GET_UID:
-        sendResponse(Process.myUid());
+        sendResponse(reqId, Process.myUid());
         break;
       case Commands.OP_TO_NAME:
-        sendResponse(mPrivTasks.buildOpToNameList());
+        sendResponse(reqId, mPrivTasks.buildOpToNameList());
         break;
       case Commands.MODE_TO_NAME:
-        sendResponse(mPrivTasks.buildModeToNameList());
+        sendResponse(reqId, mPrivTasks.buildModeToNameList());
         break;
       case Commands.GET_OPS_FOR_PKG_OR_UID:
-        sendResponse(mPrivTasks.getOpsForPackage(args));
+        sendResponse(reqId, mPrivTasks.getOpsForPackage(args));
+        break;
+      case Commands.GET_ALL_OPS:
+        sendResponse(reqId, mPrivTasks.getAllOps());
         break;
       case Commands.OP_TO_DEF_MODE_LIST:
-        sendResponse(mPrivTasks.buildOpToDefaultModeList());
+        sendResponse(reqId, mPrivTasks.buildOpToDefaultModeList());
         break;
       case Commands.OP_TO_SWITCH_LIST:
-        sendResponse(mPrivTasks.buildOpToSwitchList());
+        sendResponse(reqId, mPrivTasks.buildOpToSwitchList());
         break;
       case Commands.PERM_TO_OP_CODE_LIST:
-        sendResponse(mPrivTasks.buildPermToOpCodeList(null));
+        sendResponse(reqId, mPrivTasks.buildPermToOpCodeList(null));
         break;
       case Commands.GRANT_PERMISSION:
         mPrivTasks.grantRevokePermission(true, args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.REVOKE_PERMISSION:
         mPrivTasks.grantRevokePermission(false, args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.SET_PERM_FLAGS:
         mPrivTasks.updatePermFlags(args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.ENABLE_PACKAGE:
         mPrivTasks.setAppEnabledState(true, args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.DISABLE_PACKAGE:
         mPrivTasks.setAppEnabledState(false, args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.SET_APP_OPS_MODE:
         mPrivTasks.setAppOpsMode(args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.RESET_APP_OPS:
         mPrivTasks.resetAppOps(args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.GET_OP_NUM:
-        sendResponse(mPrivTasks.getNumOps());
+        sendResponse(reqId, mPrivTasks.getNumOps());
         break;
       case Commands.GET_SYSTEM_FIXED_FLAG:
-        sendResponse(HiddenAPIs.getSystemFixedFlag());
+        sendResponse(reqId, HiddenAPIs.getSystemFixedFlag());
         break;
       case Commands.GET_POLICY_FIXED_FLAG:
-        sendResponse(HiddenAPIs.getPolicyFixedFlag());
+        sendResponse(reqId, HiddenAPIs.getPolicyFixedFlag());
         break;
       case Commands.GET_PERMISSION_FLAGS:
-        sendResponse(mPrivTasks.getPermissionFlags(args));
+        sendResponse(reqId, mPrivTasks.getPermissionFlags(args));
+        break;
+      case Commands.GET_PERMISSIONS_FLAGS:
+        sendResponse(reqId, mPrivTasks.getPermissionsFlags(args));
         break;
       case Commands.GET_INSTALLED_PKGS:
-        sendResponse(mPrivTasks.getInstalledPackages(args));
+        sendResponse(reqId, mPrivTasks.getInstalledPackages(args));
         break;
       case Commands.GET_PKG_INFO:
-        sendResponse(mPrivTasks.getPkgInfo(args));
+        sendResponse(reqId, mPrivTasks.getPkgInfo(args));
         break;
       case Commands.OPEN_APP_INFO:
         mPrivTasks.openAppInfo(args);
-        sendResponse(null);
+        sendResponse(reqId, null);
         break;
       case Commands.GET_USERS:
-        sendResponse(mPrivTasks.getUsers());
+        sendResponse(reqId, mPrivTasks.getUsers());
         break;
       default:
         System.err.println("Unknown command: " + args[0]);
+        // Don't let the client wait forever
+        sendResponse(reqId, null);
     }
   }
 
   private ObjectOutputStream mStdOutStream;
+  private boolean mUseBinaryCodec = false;
 
   private synchronized void sendResponse(Object object) {
     if (mStdOutStream == null) {
@@ -259,6 +311,26 @@ public class PrivDaemon {
     }
   }
 
+  // Each response is preceded by the ID of the request it's for.
+  private synchronized void sendResponse(int reqId, Object object) {
+    if (mStdOutStream == null) {
+      return;
+    }
+    try {
+      mStdOutStream.writeInt(reqId);
+      if (mUseBinaryCodec) {
+        BinaryCodec.write(mStdOutStream, object);
+      } else {
+        mStdOutStream.writeObject(object);
+      }
+      mStdOutStream.flush();
+    } catch (IOException e) {
+      System.err.println("sendResponse: write error, shutting down");
+      e.printStackTrace();
+      System.exit(0);
+    }
+  }
+
   private class PrivTasksCallbackImpl implements PrivTasksCallback {
 
     @Override
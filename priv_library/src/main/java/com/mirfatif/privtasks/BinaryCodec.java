@@ -0,0 +1,279 @@
+package com.mirfatif.privtasks;
+
+import com.mirfatif.privtasks.MyPackageOps.MyOpEntry;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact length-prefixed binary encoding of daemon responses. Java serialization is heavy on
+ * both CPU and bytes for large lists we receive while parsing packages. Objects of types not
+ * known here are still serialized.
+ */
+public class BinaryCodec {
+
+  private BinaryCodec() {}
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_OBJECT = 1;
+  private static final byte TYPE_INT = 2;
+  private static final byte TYPE_STRING = 3;
+  private static final byte TYPE_INT_ARRAY = 4;
+  private static final byte TYPE_INT_LIST = 5;
+  private static final byte TYPE_STRING_LIST = 6;
+  private static final byte TYPE_PKG_OPS_LIST = 7;
+  private static final byte TYPE_PKG_INFO = 8;
+  private static final byte TYPE_PKG_INFO_LIST = 9;
+
+  //////////////////////////////////////////////////////////////////
+  ///////////////////////////// WRITING ////////////////////////////
+  //////////////////////////////////////////////////////////////////
+
+  @SuppressWarnings("unchecked")
+  public static void write(ObjectOutput out, Object object) throws IOException {
+    byte type = getType(object);
+    out.writeByte(type);
+    switch (type) {
+      case TYPE_NULL:
+        break;
+      case TYPE_INT:
+        out.writeInt((Integer) object);
+        break;
+      case TYPE_STRING:
+        writeString(out, (String) object);
+        break;
+      case TYPE_INT_ARRAY:
+        writeIntArray(out, (int[]) object);
+        break;
+      case TYPE_INT_LIST:
+        List<Integer> intList = (List<Integer>) object;
+        out.writeInt(intList.size());
+        for (Integer i : intList) {
+          out.writeInt(i);
+        }
+        break;
+      case TYPE_STRING_LIST:
+        List<String> strList = (List<String>) object;
+        out.writeInt(strList.size());
+        for (String str : strList) {
+          writeString(out, str);
+        }
+        break;
+      case TYPE_PKG_OPS_LIST:
+        List<MyPackageOps> pkgOpsList = (List<MyPackageOps>) object;
+        out.writeInt(pkgOpsList.size());
+        for (MyPackageOps pkgOps : pkgOpsList) {
+          writePkgOps(out, pkgOps);
+        }
+        break;
+      case TYPE_PKG_INFO:
+        writePkgInfo(out, (MyPackageInfo) object);
+        break;
+      case TYPE_PKG_INFO_LIST:
+        List<MyPackageInfo> pkgInfoList = (List<MyPackageInfo>) object;
+        out.writeInt(pkgInfoList.size());
+        for (MyPackageInfo pkgInfo : pkgInfoList) {
+          writePkgInfo(out, pkgInfo);
+        }
+        break;
+      default:
+        out.writeObject(object);
+    }
+  }
+
+  private static byte getType(Object object) {
+    if (object == null) {
+      return TYPE_NULL;
+    }
+    if (object instanceof Integer) {
+      return TYPE_INT;
+    }
+    if (object instanceof String) {
+      return TYPE_STRING;
+    }
+    if (object instanceof int[]) {
+      return TYPE_INT_ARRAY;
+    }
+    if (object instanceof MyPackageInfo) {
+      return TYPE_PKG_INFO;
+    }
+    if (object instanceof List) {
+      return getListType((List<?>) object);
+    }
+    return TYPE_OBJECT;
+  }
+
+  // All elements must be of the same type. Empty lists are sent as String lists.
+  private static byte getListType(List<?> list) {
+    byte type = TYPE_STRING_LIST;
+    for (int i = 0; i < list.size(); i++) {
+      Object item = list.get(i);
+      byte itemType;
+      if (item instanceof Integer) {
+        itemType = TYPE_INT_LIST;
+      } else if (item instanceof String) {
+        itemType = TYPE_STRING_LIST;
+      } else if (item instanceof MyPackageOps) {
+        itemType = TYPE_PKG_OPS_LIST;
+      } else if (item instanceof MyPackageInfo) {
+        itemType = TYPE_PKG_INFO_LIST;
+      } else {
+        return TYPE_OBJECT;
+      }
+      if (i != 0 && itemType != type) {
+        return TYPE_OBJECT;
+      }
+      type = itemType;
+    }
+    return type;
+  }
+
+  private static void writeString(ObjectOutput out, String str) throws IOException {
+    if (str == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static void writeIntArray(ObjectOutput out, int[] array) throws IOException {
+    if (array == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(array.length);
+      for (int i : array) {
+        out.writeInt(i);
+      }
+    }
+  }
+
+  private static void writePkgOps(ObjectOutput out, MyPackageOps pkgOps) throws IOException {
+    writeString(out, pkgOps.packageName);
+    out.writeInt(pkgOps.uid);
+    if (pkgOps.myOpEntryList == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(pkgOps.myOpEntryList.size());
+    for (MyOpEntry opEntry : pkgOps.myOpEntryList) {
+      out.writeInt(opEntry.op);
+      out.writeLong(opEntry.lastAccessTime);
+      out.writeInt(opEntry.opMode);
+    }
+  }
+
+  private static void writePkgInfo(ObjectOutput out, MyPackageInfo pkgInfo) throws IOException {
+    writeString(out, pkgInfo.packageName);
+    writeIntArray(out, pkgInfo.requestedPermissionsFlags);
+    out.writeInt(pkgInfo.uid);
+    out.writeBoolean(pkgInfo.enabled);
+  }
+
+  //////////////////////////////////////////////////////////////////
+  ///////////////////////////// READING ////////////////////////////
+  //////////////////////////////////////////////////////////////////
+
+  public static Object read(ObjectInput in) throws IOException, ClassNotFoundException {
+    byte type = in.readByte();
+    int size;
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_OBJECT:
+        return in.readObject();
+      case TYPE_INT:
+        return in.readInt();
+      case TYPE_STRING:
+        return readString(in);
+      case TYPE_INT_ARRAY:
+        return readIntArray(in);
+      case TYPE_INT_LIST:
+        size = in.readInt();
+        List<Integer> intList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          intList.add(in.readInt());
+        }
+        return intList;
+      case TYPE_STRING_LIST:
+        size = in.readInt();
+        List<String> strList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          strList.add(readString(in));
+        }
+        return strList;
+      case TYPE_PKG_OPS_LIST:
+        size = in.readInt();
+        List<MyPackageOps> pkgOpsList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          pkgOpsList.add(readPkgOps(in));
+        }
+        return pkgOpsList;
+      case TYPE_PKG_INFO:
+        return readPkgInfo(in);
+      case TYPE_PKG_INFO_LIST:
+        size = in.readInt();
+        List<MyPackageInfo> pkgInfoList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          pkgInfoList.add(readPkgInfo(in));
+        }
+        return pkgInfoList;
+      default:
+        throw new IOException("Unknown type: " + type);
+    }
+  }
+
+  private static String readString(ObjectInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int[] readIntArray(ObjectInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    int[] array = new int[length];
+    for (int i = 0; i < length; i++) {
+      array[i] = in.readInt();
+    }
+    return array;
+  }
+
+  private static MyPackageOps readPkgOps(ObjectInput in) throws IOException {
+    MyPackageOps pkgOps = new MyPackageOps();
+    pkgOps.packageName = readString(in);
+    pkgOps.uid = in.readInt();
+    int size = in.readInt();
+    if (size < 0) {
+      return pkgOps;
+    }
+    pkgOps.myOpEntryList = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      MyOpEntry opEntry = new MyOpEntry();
+      opEntry.op = in.readInt();
+      opEntry.lastAccessTime = in.readLong();
+      opEntry.opMode = in.readInt();
+      pkgOps.myOpEntryList.add(opEntry);
+    }
+    return pkgOps;
+  }
+
+  private static MyPackageInfo readPkgInfo(ObjectInput in) throws IOException {
+    MyPackageInfo pkgInfo = new MyPackageInfo();
+    pkgInfo.packageName = readString(in);
+    pkgInfo.requestedPermissionsFlags = readIntArray(in);
+    pkgInfo.uid = in.readInt();
+    pkgInfo.enabled = in.readBoolean();
+    return pkgInfo;
+  }
+}
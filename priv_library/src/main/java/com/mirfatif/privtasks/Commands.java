@@ -14,12 +14,15 @@ public class Commands {
   public static final String CRASH_LOG_STARTS = "PRIVILEGED_DAEMON_CRASH_LOG_STARTS";
 
   public static final String GET_READY = "GET_READY";
+  // Sent with GET_READY to ask for BinaryCodec instead of Java serialization
+  public static final String BINARY_CODEC = "BINARY_CODEC";
   public static final String STOP_LOGGING = "STOP_LOGGING";
   public static final String SHUTDOWN = "SHUTDOWN";
   public static final String GET_UID = "GET_UID";
   public static final String OP_TO_NAME = "OP_TO_NAME";
   public static final String MODE_TO_NAME = "MODE_TO_NAME";
   public static final String GET_OPS_FOR_PKG_OR_UID = "GET_OPS_FOR_PKG_OR_UID";
+  public static final String GET_ALL_OPS = "GET_ALL_OPS";
   public static final String OP_TO_DEF_MODE_LIST = "OP_TO_DEF_MODE_LIST";
   public static final String OP_TO_SWITCH_LIST = "OP_TO_SWITCH_LIST";
   public static final String PERM_TO_OP_CODE_LIST = "PERM_TO_OP_CODE_LIST";
@@ -33,6 +36,7 @@ public class Commands {
   public static final String GET_SYSTEM_FIXED_FLAG = "GET_SYSTEM_FIXED_FLAG";
   public static final String GET_POLICY_FIXED_FLAG = "GET_POLICY_FIXED_FLAG";
   public static final String GET_PERMISSION_FLAGS = "GET_PERMISSION_FLAGS";
+  public static final String GET_PERMISSIONS_FLAGS = "GET_PERMISSIONS_FLAGS";
   public static final String GET_INSTALLED_PKGS = "GET_INSTALLED_PKGS";
   public static final String GET_PKG_INFO = "GET_PKG_INFO";
   public static final String OPEN_APP_INFO = "OPEN_APP_INFO";
@@ -8,12 +8,17 @@ public class MyPackageOps implements Serializable {
   private static final long serialVersionUID = 1234567890L;
 
   public String packageName;
+  public int uid;
   public List<MyOpEntry> myOpEntryList;
 
   public String getPackageName() {
     return packageName;
   }
 
+  public int getUid() {
+    return uid;
+  }
+
   public List<MyOpEntry> getOps() {
     return myOpEntryList;
   }
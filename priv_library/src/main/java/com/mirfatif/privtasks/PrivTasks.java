@@ -16,7 +16,9 @@ import com.mirfatif.privtasks.hiddenapis.HiddenAPIsImpl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+// In daemon, methods are called concurrently from PrivDaemon's worker threads.
 public class PrivTasks {
 
   private static final String TAG = "PrivTaks";
@@ -39,7 +41,8 @@ public class PrivTasks {
   //////////////////////////// APP OPS /////////////////////////////
   //////////////////////////////////////////////////////////////////
 
-  private int NUM_OP = -1;
+  // Set once, at worst by more than one thread with the same value
+  private volatile int NUM_OP = -1;
 
   public Integer getNumOps() throws HiddenAPIsError {
     if (NUM_OP == -1) {
@@ -245,6 +248,15 @@ public class PrivTasks {
     }
   }
 
+  public List<MyPackageOps> getAllOps() throws HiddenAPIsError {
+    try {
+      return mHiddenAPIs.getAllPackageOpsList(getNumOps());
+    } catch (HiddenAPIsException e) {
+      rateLimitThrowable(e);
+      return null;
+    }
+  }
+
   //////////////////////////////////////////////////////////////////
   ////////////////////// MANIFEST PERMISSIONS //////////////////////
   //////////////////////////////////////////////////////////////////
@@ -261,6 +273,29 @@ public class PrivTasks {
     }
   }
 
+  // Flags of all given permissions of a package in a single call. -1 if failed for a permission.
+  public int[] getPermissionsFlags(String[] args) {
+    if (haveTooFewArgs(args, 3, true)) {
+      return null;
+    }
+    String pkgName = args[1];
+    int userId = Integer.parseInt(args[2]);
+    return getPermissionsFlags(pkgName, Arrays.copyOfRange(args, 3, args.length), userId);
+  }
+
+  public int[] getPermissionsFlags(String pkgName, String[] perms, int userId) {
+    int[] flags = new int[perms.length];
+    for (int i = 0; i < perms.length; i++) {
+      try {
+        flags[i] = mHiddenAPIs.getPermissionFlags(perms[i], pkgName, userId);
+      } catch (HiddenAPIsException e) {
+        rateLimitThrowable(e);
+        flags[i] = -1;
+      }
+    }
+    return flags;
+  }
+
   public void grantRevokePermission(boolean grant, String[] args) {
     if (!haveWrongArgs(args, 3)) {
       try {
@@ -452,36 +487,48 @@ public class PrivTasks {
     return true;
   }
 
-  private long lastThrowableTimestamp = 0;
+  private boolean haveTooFewArgs(String[] cmd, int minCount, boolean rateLimitToast) {
+    if (cmd.length >= minCount + 1) {
+      return false;
+    }
+    return haveWrongArgs(cmd, minCount, rateLimitToast);
+  }
+
+  // Rate limiters are shared by daemon's worker threads
+  private final AtomicLong lastThrowableTimestamp = new AtomicLong();
 
   private void rateLimitThrowable(Throwable t) {
-    if (!mCallback.isDebug() && System.currentTimeMillis() - lastThrowableTimestamp < 1000) {
+    if (!mCallback.isDebug() && !isIntervalPassed(lastThrowableTimestamp, 1000)) {
       return;
     }
     t.printStackTrace();
-    lastThrowableTimestamp = System.currentTimeMillis();
   }
 
-  private long lastLogTimestamp = 0;
+  private final AtomicLong lastLogTimestamp = new AtomicLong();
 
   private void rateLimitLog(String msg) {
     if (mCallback.isDebug()) {
       mCallback.logE(TAG + ": " + msg + " - " + System.nanoTime());
-    } else if (System.currentTimeMillis() - lastLogTimestamp >= 1000) {
+    } else if (isIntervalPassed(lastLogTimestamp, 1000)) {
       mCallback.logE(TAG + ": " + msg);
-      lastLogTimestamp = System.currentTimeMillis();
     }
   }
 
-  private long lastRequestTimestamp = 0;
+  private final AtomicLong lastRequestTimestamp = new AtomicLong();
 
   private void rateLimitSendRequest(String cmd) {
-    if (System.currentTimeMillis() - lastRequestTimestamp >= 60000) {
+    if (isIntervalPassed(lastRequestTimestamp, 60000)) {
       mCallback.sendRequest(cmd);
-      lastRequestTimestamp = System.currentTimeMillis();
     }
   }
 
+  // Only one of the concurrent callers gets true in an interval
+  private static boolean isIntervalPassed(AtomicLong lastTimestamp, long interval) {
+    long last = lastTimestamp.get();
+    long now = System.currentTimeMillis();
+    return now - last >= interval && lastTimestamp.compareAndSet(last, now);
+  }
+
   private class HiddenAPIsCallbackImpl implements HiddenAPIsCallback {
 
     @Override
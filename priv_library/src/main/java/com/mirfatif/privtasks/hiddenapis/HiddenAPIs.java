@@ -164,6 +164,26 @@ public abstract class HiddenAPIs {
       int uid, String packageName, String op, int opNum)
       throws HiddenAPIsException, HiddenAPIsError;
 
+  @HiddenClass(cls = PackageOps.class, type = CType.INNER_CLASS)
+  @HiddenClass(cls = OpEntry.class, type = CType.INNER_CLASS)
+  @HiddenMethod(name = "getPackagesForOps", cls = IAppOpsService.class)
+  @HiddenMethod(name = "getUidOps", cls = IAppOpsService.class)
+  @HiddenMethod(name = "getPackageName", cls = PackageOps.class)
+  @HiddenMethod(name = "getUid", cls = PackageOps.class)
+  @HiddenMethod(name = "getOps", cls = PackageOps.class)
+  @HiddenMethod(name = "getOp", cls = OpEntry.class)
+  @HiddenMethod(name = "getMode", cls = OpEntry.class)
+  @HiddenMethod(name = "getLastAccessTime", cls = OpEntry.class)
+  @HiddenMethod(name = "getTime", cls = OpEntry.class)
+  @Privileged(requires = "android.permission.GET_APP_OPS_STATS")
+  @Throws(name = "SecurityException")
+  /*
+   AppOps of all packages in one go. UID AppOps are included (with null package name) for all
+   UIDs which have at least one package with AppOps, on O and above.
+  */
+  public abstract List<MyPackageOps> getAllPackageOpsList(int opNum)
+      throws HiddenAPIsException, HiddenAPIsError;
+
   //////////////////////////////////////////////////////////////////
   ////////////////////// MANIFEST PERMISSIONS //////////////////////
   //////////////////////////////////////////////////////////////////
@@ -27,7 +27,9 @@ import com.android.internal.app.IAppOpsService;
 import com.mirfatif.privtasks.Commands;
 import com.mirfatif.privtasks.MyPackageOps;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class HiddenAPIsImpl extends HiddenAPIs {
 
@@ -206,6 +208,50 @@ public class HiddenAPIsImpl extends HiddenAPIs {
       }
     }
 
+    return toMyPackageOpsList(pkgOpsList, opNum);
+  }
+
+  @Override
+  public List<MyPackageOps> getAllPackageOpsList(int opNum)
+      throws HiddenAPIsException, HiddenAPIsError {
+    try {
+      return _getAllPackageOpsList(opNum);
+    } catch (RemoteException | SecurityException e) {
+      throw new HiddenAPIsException(e);
+    } catch (NoSuchMethodError e) {
+      throw new HiddenAPIsError(e);
+    }
+  }
+
+  private List<MyPackageOps> _getAllPackageOpsList(int opNum)
+      throws RemoteException, SecurityException, NoSuchMethodError {
+    List<MyPackageOps> myPackageOpsList =
+        toMyPackageOpsList(mIAppOpsService.getPackagesForOps(null), opNum);
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      Set<Integer> uids = new HashSet<>();
+      for (MyPackageOps myPackageOps : myPackageOpsList) {
+        uids.add(myPackageOps.uid);
+      }
+      for (int uid : uids) {
+        List<PackageOps> uidOpsList = null;
+        try {
+          uidOpsList = mIAppOpsService.getUidOps(uid, null);
+        } catch (NullPointerException e) {
+          mCallback.onGetUidOpsNpException(e);
+        }
+        for (MyPackageOps myPackageOps : toMyPackageOpsList(uidOpsList, opNum)) {
+          // Must be null for UID ops, and UID may not be set by Android
+          myPackageOps.packageName = null;
+          myPackageOps.uid = uid;
+          myPackageOpsList.add(myPackageOps);
+        }
+      }
+    }
+    return myPackageOpsList;
+  }
+
+  private List<MyPackageOps> toMyPackageOpsList(List<PackageOps> pkgOpsList, int opNum) {
     List<MyPackageOps> myPackageOpsList = new ArrayList<>();
 
     if (pkgOpsList == null) {
@@ -241,6 +287,7 @@ public class HiddenAPIsImpl extends HiddenAPIs {
       }
 
       myPackageOps.packageName = packageOps.getPackageName();
+      myPackageOps.uid = packageOps.getUid();
       myPackageOps.myOpEntryList = myOpEntryList;
 
       myPackageOpsList.add(myPackageOps);
@@ -425,7 +472,7 @@ public class HiddenAPIsImpl extends HiddenAPIs {
     }
   }
 
-  private boolean isQPlus = true;
+  private volatile boolean isQPlus = true;
 
   public List<String> getUsers() throws HiddenAPIsException {
     if (mIUserManager == null) {